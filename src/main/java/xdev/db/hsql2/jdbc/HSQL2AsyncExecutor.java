@@ -0,0 +1,123 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs database operations of one data source asynchronously.
+ * <p>
+ * At most {@link #getMaxConcurrency()} operations run at the same time, further ones wait in an unbounded queue
+ * without blocking the caller. The worker threads are daemon threads and end after being idle for a minute.
+ *
+ * @see HSQL2JDBCDataSource#getAsyncExecutor()
+ */
+public class HSQL2AsyncExecutor
+{
+	/**
+	 * A database operation.
+	 */
+	@FunctionalInterface
+	public interface Task<T>
+	{
+		T call() throws Exception;
+	}
+	
+	private final ThreadPoolExecutor executor;
+	
+	/**
+	 * @param name           the prefix of the worker thread names
+	 * @param maxConcurrency the maximum number of operations running at the same time
+	 */
+	public HSQL2AsyncExecutor(String name, int maxConcurrency)
+	{
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = new ThreadPoolExecutor(
+			maxConcurrency,
+			maxConcurrency,
+			60,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(),
+			r -> {
+				Thread thread = new Thread(r, name + "-async-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	public int getMaxConcurrency()
+	{
+		return executor.getMaximumPoolSize();
+	}
+	
+	/**
+	 * @return the number of operations waiting for a free worker
+	 */
+	public int getQueuedCount()
+	{
+		return executor.getQueue().size();
+	}
+	
+	/**
+	 * Runs the task on a worker thread.
+	 *
+	 * @return a future completed with the result of the task, or exceptionally with the exception it has thrown
+	 */
+	public <T> CompletableFuture<T> submit(Task<T> task)
+	{
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try
+		{
+			executor.execute(() -> {
+				if(future.isDone())
+				{
+					// cancelled while queued
+					return;
+				}
+				try
+				{
+					future.complete(task.call());
+				}
+				catch(Throwable t)
+				{
+					future.completeExceptionally(t);
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Stops accepting new operations. Running and queued ones are still completed.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+}
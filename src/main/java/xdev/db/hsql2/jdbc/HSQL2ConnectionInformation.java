@@ -18,6 +18,8 @@
 
 package xdev.db.hsql2.jdbc;
 
+import java.util.Locale;
+
 import com.xdev.jadoth.sqlengine.dbms.DbmsConnectionInformation;
 
 import xdev.db.ConnectionInformation;
@@ -25,6 +27,47 @@ import xdev.db.ConnectionInformation;
 
 public class HSQL2ConnectionInformation extends ConnectionInformation<HSQL2Dbms>
 {
+	/**
+	 * The ways to reach a HSQLDB database.
+	 */
+	public enum Mode
+	{
+		/**
+		 * A HSQLDB server, reached over TCP: <code>jdbc:hsqldb:hsql://host:port/database</code>.
+		 */
+		SERVER,
+		
+		/**
+		 * An in-process in-memory database: <code>jdbc:hsqldb:mem:database</code>. Host and port are ignored.
+		 */
+		MEMORY,
+		
+		/**
+		 * An in-process database stored in files: <code>jdbc:hsqldb:file:database</code>, where the database is
+		 * the path of the database files without extension. Host and port are ignored.
+		 */
+		FILE;
+		
+		/**
+		 * @param name the name of the mode, case insensitive
+		 * @return the mode with the given name, {@link #SERVER} if <code>name</code> is <code>null</code> or empty
+		 */
+		public static Mode parse(final String name)
+		{
+			if(name == null || name.trim().isEmpty())
+			{
+				return SERVER;
+			}
+			return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+		}
+	}
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// instance fields //
+	// ///////////////////
+	
+	private Mode mode;
+	
 	// /////////////////////////////////////////////////////////////////////////
 	// constructors //
 	// ///////////////////
@@ -42,8 +85,27 @@ public class HSQL2ConnectionInformation extends ConnectionInformation<HSQL2Dbms>
 		final String host, final int port, final String user,
 		final String password, final String database, final String urlExtension,
 		final HSQL2Dbms dbmsAdaptor)
+	{
+		this(Mode.SERVER, host, port, user, password, database, urlExtension, dbmsAdaptor);
+	}
+	
+	/**
+	 * Instantiates a new hsql20 connection information.
+	 *
+	 * @param mode         how the database is reached
+	 * @param user         the user
+	 * @param password     the password
+	 * @param database     the database, the path of the database files in {@link Mode#FILE}
+	 * @param urlExtension the extended url properties
+	 * @param dbmsAdaptor  the dbms adaptor
+	 */
+	public HSQL2ConnectionInformation(
+		final Mode mode, final String host, final int port, final String user,
+		final String password, final String database, final String urlExtension,
+		final HSQL2Dbms dbmsAdaptor)
 	{
 		super(host, port, user, password, database, urlExtension, dbmsAdaptor);
+		this.mode = mode;
 	}
 	
 	// /////////////////////////////////////////////////////////////////////////
@@ -60,6 +122,16 @@ public class HSQL2ConnectionInformation extends ConnectionInformation<HSQL2Dbms>
 		return this.getCatalog();
 	}
 	
+	/**
+	 * Gets the connection mode.
+	 *
+	 * @return the mode
+	 */
+	public Mode getMode()
+	{
+		return this.mode;
+	}
+	
 	// /////////////////////////////////////////////////////////////////////////
 	// setters //
 	// ///////////////////
@@ -74,6 +146,16 @@ public class HSQL2ConnectionInformation extends ConnectionInformation<HSQL2Dbms>
 		this.setCatalog(database);
 	}
 	
+	/**
+	 * Sets the connection mode.
+	 *
+	 * @param mode the mode to set
+	 */
+	public void setMode(final Mode mode)
+	{
+		this.mode = mode;
+	}
+	
 	// /////////////////////////////////////////////////////////////////////////
 	// override methods //
 	// ///////////////////
@@ -84,7 +166,21 @@ public class HSQL2ConnectionInformation extends ConnectionInformation<HSQL2Dbms>
 	@Override
 	public String createJdbcConnectionUrl()
 	{
-		String url = "jdbc:hsqldb:hsql://" + getHost() + ":" + getPort() + "/" + getCatalog();
+		String url;
+		switch(this.mode)
+		{
+			case MEMORY:
+				url = "jdbc:hsqldb:mem:" + getCatalog();
+				break;
+			
+			case FILE:
+				url = "jdbc:hsqldb:file:" + getCatalog();
+				break;
+			
+			default:
+				url = "jdbc:hsqldb:hsql://" + getHost() + ":" + getPort() + "/" + getCatalog();
+				break;
+		}
 		return appendUrlExtension(url);
 	}
 	
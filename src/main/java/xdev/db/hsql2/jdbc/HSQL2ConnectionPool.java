@@ -0,0 +1,624 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A bounded pool of physical connections of a {@link HSQL2JDBCDataSource}.
+ * <p>
+ * Idle connections are kept in a deque and are handed out last in, first out, so that a warm connection is reused
+ * and the ones at the tail can time out. The number of open connections is bounded by a semaphore. If no connection
+ * is idle and no slot is free, a borrower waits at most {@link #getBorrowTimeout()} milliseconds for a connection to
+ * be returned or a slot to be freed.
+ * <p>
+ * A connection which has been idle for less than {@link #VALIDATION_THRESHOLD} milliseconds is handed out without
+ * validation, older ones are checked with {@link Connection#isValid(int)}. Connections idle for longer than the
+ * idle timeout are closed by a background task, which keeps at least the minimum number of connections open.
+ * <p>
+ * Borrowed connections are wrapped; closing the wrapper closes the statements and result sets created through it
+ * (HSQLDB does not close the result sets of a closed statement), rolls back open work, restores auto commit, read
+ * only, transaction isolation and schema as they were when the connection was opened, and returns the physical
+ * connection to the pool. Each physical connection keeps its prepared statements in a {@link HSQL2StatementCache}
+ * unless the statement cache size is <code>0</code>.
+ */
+public class HSQL2ConnectionPool
+{
+	/**
+	 * Idle time in milliseconds after which a connection is validated before it is handed out again.
+	 */
+	public static final long VALIDATION_THRESHOLD = 1000;
+	
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+	
+	/**
+	 * Returned connections wake a waiting borrower at once; a slot freed by a discarded connection is noticed after
+	 * at most this many milliseconds.
+	 */
+	private static final long WAIT_SLICE = 100;
+	
+	private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "HSQL2ConnectionPool-evictor");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * Opens the physical connections of a pool.
+	 */
+	@FunctionalInterface
+	public interface ConnectionFactory
+	{
+		Connection open() throws SQLException;
+	}
+	
+	private final ConnectionFactory connectionFactory;
+	private final int minSize;
+	private final int maxSize;
+	private final long idleTimeout;
+	private final long borrowTimeout;
+	private final int statementCacheSize;
+	
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+	private final Set<PooledConnection> open = ConcurrentHashMap.newKeySet();
+	private final LongAdder closedStatementHits = new LongAdder();
+	private final LongAdder closedStatementMisses = new LongAdder();
+	private final Semaphore permits;
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private final ScheduledFuture<?> evictionTask;
+	
+	/**
+	 * @param connectionFactory opens a new physical connection
+	 * @param minSize           the number of connections kept open while idle
+	 * @param maxSize           the maximum number of open connections
+	 * @param idleTimeout       milliseconds after which an idle connection is closed, <code>0</code> to keep idle
+	 *                          connections open
+	 * @param borrowTimeout     milliseconds a borrower waits for a free connection
+	 * @param statementCacheSize the number of prepared statements cached per connection, <code>0</code> to disable
+	 *                          the statement cache
+	 */
+	public HSQL2ConnectionPool(
+		ConnectionFactory connectionFactory, int minSize, int maxSize, long idleTimeout,
+		long borrowTimeout, int statementCacheSize)
+	{
+		if(maxSize < 1 || minSize < 0 || minSize > maxSize)
+		{
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+		}
+		
+		this.connectionFactory = connectionFactory;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+		this.borrowTimeout = borrowTimeout;
+		this.statementCacheSize = statementCacheSize;
+		this.permits = new Semaphore(maxSize);
+		
+		long period = idleTimeout > 0 ? Math.max(1000, Math.min(idleTimeout / 2, 30000)) : 30000;
+		this.evictionTask = EVICTOR.scheduleWithFixedDelay(this::maintain, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	public int getMinSize()
+	{
+		return minSize;
+	}
+	
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+	
+	public long getIdleTimeout()
+	{
+		return idleTimeout;
+	}
+	
+	public long getBorrowTimeout()
+	{
+		return borrowTimeout;
+	}
+	
+	public int getStatementCacheSize()
+	{
+		return statementCacheSize;
+	}
+	
+	/**
+	 * @return the number of prepared statements served from the statement caches of all connections of this pool
+	 */
+	public long getStatementCacheHitCount()
+	{
+		long count = closedStatementHits.sum();
+		for(PooledConnection pooled : open)
+		{
+			if(pooled.statementCache != null)
+			{
+				count += pooled.statementCache.getHitCount();
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return the number of prepared statements which were compiled by the connections of this pool
+	 */
+	public long getStatementCacheMissCount()
+	{
+		long count = closedStatementMisses.sum();
+		for(PooledConnection pooled : open)
+		{
+			if(pooled.statementCache != null)
+			{
+				count += pooled.statementCache.getMissCount();
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return the number of connections which currently wait in the pool
+	 */
+	public int getIdleCount()
+	{
+		return idle.size();
+	}
+	
+	/**
+	 * @return the number of connections which are currently borrowed
+	 */
+	public int getActiveCount()
+	{
+		return maxSize - permits.availablePermits() - idle.size();
+	}
+	
+	/**
+	 * Borrows a connection. The returned connection must be closed, which hands it back to the pool.
+	 *
+	 * @throws SQLException if no connection became free within the borrow timeout, or a new connection could not
+	 *                      be opened
+	 */
+	public Connection borrow() throws SQLException
+	{
+		if(closed.get())
+		{
+			throw new SQLException("Connection pool is closed");
+		}
+		
+		long deadline = System.currentTimeMillis() + borrowTimeout;
+		PooledConnection pooled = idle.pollFirst();
+		while(true)
+		{
+			if(pooled != null)
+			{
+				if(isUsable(pooled))
+				{
+					return pooled.lease();
+				}
+				discard(pooled);
+			}
+			else if(permits.tryAcquire())
+			{
+				try
+				{
+					return new PooledConnection(open()).lease();
+				}
+				catch(RuntimeException | SQLException e)
+				{
+					permits.release();
+					throw e;
+				}
+			}
+			else
+			{
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0)
+				{
+					throw new SQLException("No connection available within " + borrowTimeout + " ms, pool size: "
+						+ maxSize);
+				}
+				if(closed.get())
+				{
+					throw new SQLException("Connection pool is closed");
+				}
+				try
+				{
+					pooled = idle.pollFirst(Math.min(remaining, WAIT_SLICE), TimeUnit.MILLISECONDS);
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new SQLException(e);
+				}
+				continue;
+			}
+			pooled = idle.pollFirst();
+		}
+	}
+	
+	/**
+	 * Closes all idle connections and stops the background eviction. Borrowed connections are closed when they are
+	 * returned.
+	 */
+	public void close()
+	{
+		if(closed.compareAndSet(false, true))
+		{
+			evictionTask.cancel(false);
+			PooledConnection pooled;
+			while((pooled = idle.pollFirst()) != null)
+			{
+				discard(pooled);
+			}
+		}
+	}
+	
+	private Connection open() throws SQLException
+	{
+		Connection connection = connectionFactory.open();
+		if(connection == null)
+		{
+			throw new SQLException("Connection could not be opened");
+		}
+		return connection;
+	}
+	
+	private boolean isUsable(PooledConnection pooled)
+	{
+		if(System.currentTimeMillis() - pooled.lastUsed < VALIDATION_THRESHOLD)
+		{
+			return true;
+		}
+		
+		try
+		{
+			return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		}
+		catch(SQLException e)
+		{
+			return false;
+		}
+	}
+	
+	private void giveBack(PooledConnection pooled, List<AutoCloseable> resources)
+	{
+		try
+		{
+			Connection connection = pooled.connection;
+			if(connection.isClosed())
+			{
+				discard(pooled);
+				return;
+			}
+			// result sets before their statements; cached statements go back to the statement cache
+			for(int i = resources.size() - 1; i >= 0; i--)
+			{
+				resources.get(i).close();
+			}
+			if(!connection.getAutoCommit())
+			{
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+			if(connection.isReadOnly())
+			{
+				connection.setReadOnly(false);
+			}
+			if(connection.getTransactionIsolation() != pooled.transactionIsolation)
+			{
+				connection.setTransactionIsolation(pooled.transactionIsolation);
+			}
+			if(!Objects.equals(connection.getSchema(), pooled.schema))
+			{
+				connection.setSchema(pooled.schema);
+			}
+			connection.clearWarnings();
+		}
+		catch(Exception e)
+		{
+			discard(pooled);
+			return;
+		}
+		
+		if(closed.get())
+		{
+			discard(pooled);
+			return;
+		}
+		
+		pooled.lastUsed = System.currentTimeMillis();
+		idle.offerFirst(pooled);
+	}
+	
+	/**
+	 * Closes the physical connection and frees its slot.
+	 */
+	private void discard(PooledConnection pooled)
+	{
+		if(open.remove(pooled) && pooled.statementCache != null)
+		{
+			closedStatementHits.add(pooled.statementCache.getHitCount());
+			closedStatementMisses.add(pooled.statementCache.getMissCount());
+		}
+		
+		try
+		{
+			pooled.connection.close();
+		}
+		catch(SQLException e)
+		{
+			// ignore, the connection is dropped anyway
+		}
+		finally
+		{
+			permits.release();
+		}
+	}
+	
+	/**
+	 * Closes connections idle for longer than the idle timeout, oldest first, and opens connections up to the
+	 * minimum size.
+	 */
+	private void maintain()
+	{
+		if(closed.get())
+		{
+			return;
+		}
+		
+		if(idleTimeout > 0)
+		{
+			long now = System.currentTimeMillis();
+			Iterator<PooledConnection> it = idle.descendingIterator();
+			while(it.hasNext() && idle.size() > minSize)
+			{
+				PooledConnection pooled = it.next();
+				if(now - pooled.lastUsed >= idleTimeout && idle.remove(pooled))
+				{
+					discard(pooled);
+				}
+			}
+		}
+		
+		while(idle.size() < minSize && permits.tryAcquire())
+		{
+			try
+			{
+				PooledConnection pooled = new PooledConnection(open());
+				pooled.lastUsed = System.currentTimeMillis();
+				idle.offerLast(pooled);
+			}
+			catch(RuntimeException | SQLException e)
+			{
+				permits.release();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * A physical connection owned by the pool.
+	 */
+	private final class PooledConnection
+	{
+		final Connection connection;
+		final HSQL2StatementCache statementCache;
+		final int transactionIsolation;
+		final String schema;
+		volatile long lastUsed;
+		
+		PooledConnection(Connection connection) throws SQLException
+		{
+			this.connection = connection;
+			this.transactionIsolation = connection.getTransactionIsolation();
+			this.schema = connection.getSchema();
+			this.statementCache = statementCacheSize > 0 ? new HSQL2StatementCache(connection, statementCacheSize)
+				: null;
+			open.add(this);
+		}
+		
+		Connection lease()
+		{
+			return (Connection)Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[]{Connection.class},
+				new Lease(this));
+		}
+	}
+	
+	/**
+	 * The handle given to a borrower; it forwards to the physical connection until it is closed.
+	 */
+	private final class Lease implements InvocationHandler
+	{
+		private final AtomicBoolean released = new AtomicBoolean();
+		private final PooledConnection pooled;
+		private final List<AutoCloseable> resources = new ArrayList<>();
+		
+		Lease(PooledConnection pooled)
+		{
+			this.pooled = pooled;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			switch(method.getName())
+			{
+				case "close":
+					if(released.compareAndSet(false, true))
+					{
+						synchronized(resources)
+						{
+							giveBack(pooled, resources);
+							resources.clear();
+						}
+					}
+					return null;
+				
+				case "isClosed":
+					return released.get() || pooled.connection.isClosed();
+				
+				case "equals":
+					return proxy == args[0];
+				
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				
+				case "toString":
+					return "Pooled[" + pooled.connection + "]";
+			}
+			
+			if(released.get())
+			{
+				throw new SQLException("Connection is closed");
+			}
+			
+			Object result = null;
+			if(pooled.statementCache != null && method.getName().equals("prepareStatement"))
+			{
+				if(args.length == 1)
+				{
+					result = pooled.statementCache.prepareStatement((String)args[0]);
+				}
+				else if(args.length == 3 && method.getParameterTypes()[1] == int.class)
+				{
+					result = pooled.statementCache.prepareStatement((String)args[0], (Integer)args[1],
+						(Integer)args[2]);
+				}
+			}
+			
+			if(result == null)
+			{
+				try
+				{
+					result = method.invoke(pooled.connection, args);
+				}
+				catch(InvocationTargetException e)
+				{
+					throw e.getCause();
+				}
+			}
+			
+			if(result instanceof Statement)
+			{
+				track((Statement)result);
+				return Proxy.newProxyInstance(
+					Connection.class.getClassLoader(),
+					new Class<?>[]{method.getReturnType()},
+					new LeaseStatement((Statement)result, this, (Connection)proxy));
+			}
+			return result;
+		}
+		
+		/**
+		 * Remembers a statement or result set to close it when the connection is returned, forgetting the ones
+		 * already closed from time to time.
+		 */
+		void track(AutoCloseable resource) throws SQLException
+		{
+			synchronized(resources)
+			{
+				if(resources.size() >= 64)
+				{
+					Iterator<AutoCloseable> it = resources.iterator();
+					while(it.hasNext())
+					{
+						AutoCloseable next = it.next();
+						if(next instanceof Statement ? ((Statement)next).isClosed() : ((ResultSet)next).isClosed())
+						{
+							it.remove();
+						}
+					}
+				}
+				resources.add(resource);
+			}
+		}
+	}
+	
+	/**
+	 * A statement created through a {@link Lease}; it registers its result sets with the lease and reports the lease
+	 * as its connection.
+	 */
+	private static final class LeaseStatement implements InvocationHandler
+	{
+		private final Statement statement;
+		private final Lease lease;
+		private final Connection connection;
+		
+		LeaseStatement(Statement statement, Lease lease, Connection connection)
+		{
+			this.statement = statement;
+			this.lease = lease;
+			this.connection = connection;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			switch(method.getName())
+			{
+				case "getConnection":
+					return connection;
+				
+				case "equals":
+					return proxy == args[0];
+				
+				case "hashCode":
+					return System.identityHashCode(proxy);
+			}
+			
+			Object result;
+			try
+			{
+				result = method.invoke(statement, args);
+			}
+			catch(InvocationTargetException e)
+			{
+				throw e.getCause();
+			}
+			
+			if(result instanceof ResultSet)
+			{
+				lease.track((ResultSet)result);
+			}
+			return result;
+		}
+	}
+}
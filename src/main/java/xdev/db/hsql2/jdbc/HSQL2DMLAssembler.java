@@ -17,13 +17,435 @@
  */
 package xdev.db.hsql2.jdbc;
 
+import java.util.Arrays;
+import java.util.List;
+
 import com.xdev.jadoth.sqlengine.dbms.standard.StandardDMLAssembler;
+import com.xdev.jadoth.sqlengine.internal.SqlQuery;
 
 
 public class HSQL2DMLAssembler extends StandardDMLAssembler<HSQL2Dbms>
 {
+	// /////////////////////////////////////////////////////////////////////////
+	// constants //
+	// ///////////////////
+	
+	public static final int DEFAULT_MAX_INSERT_ROWS = 500;
+	public static final int DEFAULT_MAX_INSERT_PARAMETERS = 2000;
+	public static final int DEFAULT_MAX_INSERT_LENGTH = 64 * 1024;
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// instance fields //
+	// ///////////////////
+	
+	/**
+	 * Length of the last assembled query, used to size the buffer of the next one.
+	 */
+	private volatile int queryLengthHint = 256;
+	
+	private volatile int maxInsertRows = DEFAULT_MAX_INSERT_ROWS;
+	private volatile int maxInsertParameters = DEFAULT_MAX_INSERT_PARAMETERS;
+	private volatile int maxInsertLength = DEFAULT_MAX_INSERT_LENGTH;
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// constructors //
+	// ///////////////////
+	
 	public HSQL2DMLAssembler(final HSQL2Dbms dbms)
 	{
 		super(dbms);
 	}
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// override methods //
+	// ///////////////////
+	
+	/**
+	 * Appends the SQL of the query to a buffer presized with the length of the last assembled query, so that
+	 * building the string does not repeatedly grow the buffer.
+	 */
+	@Override
+	public StringBuilder assembleQuery(
+		final SqlQuery query,
+		final StringBuilder sb,
+		final int indentLevel,
+		final int flags)
+	{
+		final int start = sb.length();
+		sb.ensureCapacity(start + this.queryLengthHint);
+		super.assembleQuery(query, sb, indentLevel, flags);
+		this.queryLengthHint = Math.min(sb.length() - start, DEFAULT_MAX_INSERT_LENGTH);
+		return sb;
+	}
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// declared methods //
+	// ///////////////////
+	
+	/**
+	 * Returns the number of rows per multi-row <code>INSERT</code> for the given table and columns: as many as fit
+	 * into {@link #getMaxInsertRows()} rows, {@link #getMaxInsertParameters()} parameters and
+	 * {@link #getMaxInsertLength()} characters of SQL, but at least one.
+	 *
+	 * @see #assembleINSERT(String, String, String[], int)
+	 */
+	public int getInsertRowsPerStatement(final String schema, final String table, final String[] columns)
+	{
+		final int headerLength = this.assembleINSERT(schema, table, columns, 0).length();
+		final int rowLength = columns.length * 3 + 2;
+		final int rows = Math.min(
+			this.maxInsertRows,
+			Math.min(this.maxInsertParameters / Math.max(1, columns.length), (this.maxInsertLength - headerLength)
+				/ rowLength));
+		return Math.max(1, rows);
+	}
+	
+	/**
+	 * Assembles an <code>INSERT</code> of <code>rowCount</code> rows with one <code>VALUES</code> list:
+	 * <code>INSERT INTO t (a, b) VALUES (?, ?), (?, ?)</code>. The parameters are the values of
+	 * <code>columns</code>, row by row.
+	 *
+	 * @param schema   the schema of the table, may be <code>null</code>
+	 * @param table    the name of the table
+	 * @param columns  the columns to set
+	 * @param rowCount the number of rows
+	 */
+	public String assembleINSERT(
+		final String schema,
+		final String table,
+		final String[] columns,
+		final int rowCount)
+	{
+		final int rowLength = columns.length * 3 + 2;
+		final StringBuilder sb = new StringBuilder(32 + columns.length * 24 + rowCount * rowLength);
+		sb.append("INSERT INTO ");
+		if(schema != null && schema.length() > 0)
+		{
+			HSQL2Dbms.appendIdentifier(schema, sb).append('.');
+		}
+		HSQL2Dbms.appendIdentifier(table, sb).append(" (");
+		appendIdentifiers(null, columns, sb);
+		sb.append(") VALUES ");
+		for(int row = 0; row < rowCount; row++)
+		{
+			if(row > 0)
+			{
+				sb.append(", ");
+			}
+			sb.append('(');
+			for(int i = 0; i < columns.length; i++)
+			{
+				sb.append(i > 0 ? ", ?" : "?");
+			}
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+	
+	public int getMaxInsertRows()
+	{
+		return this.maxInsertRows;
+	}
+	
+	/**
+	 * @param maxInsertRows the maximum number of rows per multi-row <code>INSERT</code>
+	 */
+	public void setMaxInsertRows(final int maxInsertRows)
+	{
+		this.maxInsertRows = Math.max(1, maxInsertRows);
+	}
+	
+	public int getMaxInsertParameters()
+	{
+		return this.maxInsertParameters;
+	}
+	
+	/**
+	 * @param maxInsertParameters the maximum number of parameters per multi-row <code>INSERT</code>
+	 */
+	public void setMaxInsertParameters(final int maxInsertParameters)
+	{
+		this.maxInsertParameters = Math.max(1, maxInsertParameters);
+	}
+	
+	public int getMaxInsertLength()
+	{
+		return this.maxInsertLength;
+	}
+	
+	/**
+	 * @param maxInsertLength the maximum length in characters of a multi-row <code>INSERT</code>
+	 */
+	public void setMaxInsertLength(final int maxInsertLength)
+	{
+		this.maxInsertLength = Math.max(1, maxInsertLength);
+	}
+	
+	/**
+	 * Assembles a query for one page of a keyset (seek) pagination. Instead of skipping <code>OFFSET</code> rows, the
+	 * page starts after the last key of the previous page, so that every page costs an index seek regardless of its
+	 * position.
+	 * <p>
+	 * The key columns must identify a row uniquely and must not be <code>NULL</code>. Mixed sort directions are
+	 * handled by expanding the seek condition, e.g. for <code>a ASC, b DESC</code>:
+	 * <code>a &gt;= ? AND (a &gt; ? OR (a = ? AND b &lt; ?))</code>. The leading bound on the first key column lets
+	 * HSQLDB start the index scan at the right position, which a row value comparison would not. The parameters of
+	 * the seek condition follow the parameters of <code>where</code> and are created from the last key with
+	 * {@link #getKeysetParameters(Object[])}.
+	 *
+	 * @param schema     the schema of the table, may be <code>null</code>
+	 * @param table      the name of the table
+	 * @param columns    the columns to select, <code>null</code> or empty for all columns
+	 * @param where      an additional condition, may be <code>null</code>
+	 * @param keyColumns the columns of the unique sort key
+	 * @param descending the sort direction per key column, <code>null</code> to sort all ascending
+	 * @param afterKey   <code>false</code> for the first page, <code>true</code> for the following pages
+	 * @param pageSize   the maximum number of rows of the page
+	 */
+	public String assembleKeysetPage(
+		final String schema,
+		final String table,
+		final String[] columns,
+		final String where,
+		final String[] keyColumns,
+		final boolean[] descending,
+		final boolean afterKey,
+		final int pageSize)
+	{
+		if(keyColumns.length == 0)
+		{
+			throw new IllegalArgumentException("At least one key column is required");
+		}
+		if(descending != null && descending.length != keyColumns.length)
+		{
+			throw new IllegalArgumentException("One sort direction per key column is required");
+		}
+		
+		final StringBuilder sb = new StringBuilder(128 + keyColumns.length * keyColumns.length * 32);
+		sb.append("SELECT ");
+		if(columns == null || columns.length == 0)
+		{
+			sb.append('*');
+		}
+		else
+		{
+			appendIdentifiers(null, columns, sb);
+		}
+		sb.append(" FROM ");
+		if(schema != null && schema.length() > 0)
+		{
+			HSQL2Dbms.appendIdentifier(schema, sb).append('.');
+		}
+		HSQL2Dbms.appendIdentifier(table, sb);
+		
+		final boolean hasWhere = where != null && where.trim().length() > 0;
+		if(hasWhere || afterKey)
+		{
+			sb.append(" WHERE ");
+		}
+		if(hasWhere)
+		{
+			sb.append('(').append(where).append(')');
+		}
+		if(afterKey)
+		{
+			if(hasWhere)
+			{
+				sb.append(" AND ");
+			}
+			appendSeekCondition(keyColumns, descending, sb);
+		}
+		
+		sb.append(" ORDER BY ");
+		for(int i = 0; i < keyColumns.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(", ");
+			}
+			HSQL2Dbms.appendIdentifier(keyColumns[i], sb);
+			if(isDescending(descending, i))
+			{
+				sb.append(" DESC");
+			}
+		}
+		sb.append(" FETCH FIRST ").append(pageSize).append(" ROWS ONLY");
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Expands the last key of a page into the parameters of the seek condition of
+	 * {@link #assembleKeysetPage(String, String, String[], String, String[], boolean[], boolean, int)}.
+	 *
+	 * @param lastKey the values of the key columns of the last row of the previous page
+	 */
+	public static Object[] getKeysetParameters(final Object[] lastKey)
+	{
+		final int n = lastKey.length;
+		if(n == 1)
+		{
+			return new Object[]{lastKey[0]};
+		}
+		
+		final Object[] parameters = new Object[1 + n * (n + 1) / 2];
+		int index = 0;
+		parameters[index++] = lastKey[0];
+		for(int i = 0; i < n; i++)
+		{
+			for(int j = 0; j <= i; j++)
+			{
+				parameters[index++] = lastKey[j];
+			}
+		}
+		return parameters;
+	}
+	
+	private static void appendSeekCondition(
+		final String[] keyColumns,
+		final boolean[] descending,
+		final StringBuilder sb)
+	{
+		if(keyColumns.length > 1)
+		{
+			HSQL2Dbms.appendIdentifier(keyColumns[0], sb).append(isDescending(descending, 0) ? " <= ?" : " >= ?");
+			sb.append(" AND ");
+		}
+		
+		sb.append('(');
+		for(int i = 0; i < keyColumns.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(" OR ");
+			}
+			sb.append('(');
+			for(int j = 0; j < i; j++)
+			{
+				HSQL2Dbms.appendIdentifier(keyColumns[j], sb).append(" = ? AND ");
+			}
+			HSQL2Dbms.appendIdentifier(keyColumns[i], sb).append(isDescending(descending, i) ? " < ?" : " > ?");
+			sb.append(')');
+		}
+		sb.append(')');
+	}
+	
+	private static boolean isDescending(final boolean[] descending, final int index)
+	{
+		return descending != null && descending[index];
+	}
+	
+	/**
+	 * Assembles an upsert of one row as a single <code>MERGE</code> statement.
+	 *
+	 * @see #assembleMERGE(String, String, String[], String[], int)
+	 */
+	public String assembleMERGE(
+		final String schema,
+		final String table,
+		final String[] keyColumns,
+		final String[] columns)
+	{
+		return this.assembleMERGE(schema, table, keyColumns, columns, 1);
+	}
+	
+	/**
+	 * Assembles an upsert of <code>rowCount</code> rows as a single <code>MERGE</code> statement: rows whose key
+	 * columns match an existing row update its other columns, the remaining rows are inserted. The parameters are
+	 * the values of <code>columns</code>, row by row. A key must not occur twice within one execution.
+	 *
+	 * @param schema     the schema of the table, may be <code>null</code>
+	 * @param table      the name of the table
+	 * @param keyColumns the columns identifying a row, a subset of <code>columns</code>
+	 * @param columns    all columns to set
+	 * @param rowCount   the number of rows per execution
+	 */
+	public String assembleMERGE(
+		final String schema,
+		final String table,
+		final String[] keyColumns,
+		final String[] columns,
+		final int rowCount)
+	{
+		if(keyColumns.length == 0 || rowCount < 1)
+		{
+			throw new IllegalArgumentException("At least one key column and one row are required");
+		}
+		
+		final List<String> keys = Arrays.asList(keyColumns);
+		if(!Arrays.asList(columns).containsAll(keys))
+		{
+			throw new IllegalArgumentException("Key columns must be part of the columns");
+		}
+		
+		final StringBuilder sb = new StringBuilder(64 + rowCount * (columns.length * 3 + 4) + columns.length * 48);
+		sb.append("MERGE INTO ");
+		if(schema != null && schema.length() > 0)
+		{
+			HSQL2Dbms.appendIdentifier(schema, sb).append('.');
+		}
+		HSQL2Dbms.appendIdentifier(table, sb).append(" AS \"T\" USING (VALUES ");
+		for(int row = 0; row < rowCount; row++)
+		{
+			if(row > 0)
+			{
+				sb.append(", ");
+			}
+			sb.append('(');
+			for(int i = 0; i < columns.length; i++)
+			{
+				sb.append(i > 0 ? ", ?" : "?");
+			}
+			sb.append(')');
+		}
+		sb.append(") AS \"V\" (");
+		appendIdentifiers(null, columns, sb);
+		sb.append(") ON ");
+		for(int i = 0; i < keyColumns.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(" AND ");
+			}
+			HSQL2Dbms.appendIdentifier(keyColumns[i], sb.append("\"T\".")).append(" = ");
+			HSQL2Dbms.appendIdentifier(keyColumns[i], sb.append("\"V\"."));
+		}
+		
+		boolean first = true;
+		for(final String column : columns)
+		{
+			if(!keys.contains(column))
+			{
+				sb.append(first ? " WHEN MATCHED THEN UPDATE SET " : ", ");
+				HSQL2Dbms.appendIdentifier(column, sb.append("\"T\".")).append(" = ");
+				HSQL2Dbms.appendIdentifier(column, sb.append("\"V\"."));
+				first = false;
+			}
+		}
+		
+		sb.append(" WHEN NOT MATCHED THEN INSERT (");
+		appendIdentifiers(null, columns, sb);
+		sb.append(") VALUES (");
+		appendIdentifiers("\"V\".", columns, sb);
+		sb.append(')');
+		
+		return sb.toString();
+	}
+	
+	private static StringBuilder appendIdentifiers(final String prefix, final String[] names, final StringBuilder sb)
+	{
+		for(int i = 0; i < names.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(", ");
+			}
+			if(prefix != null)
+			{
+				sb.append(prefix);
+			}
+			HSQL2Dbms.appendIdentifier(names[i], sb);
+		}
+		return sb;
+	}
 }
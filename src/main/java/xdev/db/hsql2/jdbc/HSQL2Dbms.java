@@ -20,9 +20,12 @@ package xdev.db.hsql2.jdbc;
 
 import com.xdev.jadoth.sqlengine.dbms.DbmsAdaptor;
 import com.xdev.jadoth.sqlengine.dbms.SQLExceptionParser;
+import com.xdev.jadoth.sqlengine.exceptions.SQLEngineException;
 import com.xdev.jadoth.sqlengine.internal.DatabaseGateway;
 import com.xdev.jadoth.sqlengine.internal.tables.SqlTableIdentity;
 
+import xdev.db.DBException;
+
 
 public class HSQL2Dbms
 	extends
@@ -39,6 +42,14 @@ public class HSQL2Dbms
 	protected static final int MAX_VARCHAR_LENGTH = Integer.MAX_VALUE;
 	protected static final char IDENTIFIER_DELIMITER = '"';
 	
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// instance fields //
+	// ///////////////////
+	
+	private HSQL2WarmUp warmUp;
+	
 	// /////////////////////////////////////////////////////////////////////////
 	// constructors //
 	// ///////////////////
@@ -76,38 +87,87 @@ public class HSQL2Dbms
 	}
 	
 	/**
-	 * HSQL does not support any means of calculating table columns selectivity as far as it is known.
+	 * HSQL does not calculate column selectivity itself, so it is estimated from a sample of the table's rows.
+	 *
+	 * @return the {@link HSQL2TableStatistics} of the table, cached by the retrospection accessor
+	 * @see HSQL2RetrospectionAccessor#getTableStatistics(SqlTableIdentity)
 	 */
 	@Override
-	public Object updateSelectivity(final SqlTableIdentity table)
+	public HSQL2TableStatistics updateSelectivity(final SqlTableIdentity table)
 	{
-		return null;
+		return this.getRetrospectionAccessor().getTableStatistics(table);
 	}
 	
 	/**
+	 * Appends the bytes as binary string literal, e.g. <code>X'0AFF'</code>, or <code>NULL</code> if
+	 * <code>bytes</code> is <code>null</code>.
+	 *
+	 * @param sb the builder to append to, a new one is created if <code>null</code>
 	 * @see DbmsAdaptor#assembleTransformBytes(byte[], java.lang.StringBuilder)
 	 */
 	@Override
-	public StringBuilder assembleTransformBytes(final byte[] bytes, final StringBuilder sb)
+	public StringBuilder assembleTransformBytes(final byte[] bytes, StringBuilder sb)
 	{
-		return null;
+		if(bytes == null)
+		{
+			return sb == null ? new StringBuilder("NULL") : sb.append("NULL");
+		}
+		
+		final int length = 3 + bytes.length * 2;
+		if(sb == null)
+		{
+			sb = new StringBuilder(length);
+		}
+		else
+		{
+			sb.ensureCapacity(sb.length() + length);
+		}
+		
+		sb.append('X').append('\'');
+		for(final byte b : bytes)
+		{
+			sb.append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
+		}
+		return sb.append('\'');
 	}
 	
 	/**
-	 * @see DbmsAdaptor.Implementation#getRetrospectionAccessor()
+	 * Runs the warm-up of the data source if it is enabled, so that the first requests do not pay for opening
+	 * connections, loading meta data and compiling statements.
+	 *
+	 * @see DbmsAdaptor#initialize(DatabaseGateway)
+	 * @see HSQL2WarmUp
 	 */
 	@Override
-	public HSQL2RetrospectionAccessor getRetrospectionAccessor()
+	public void initialize(final DatabaseGateway<HSQL2Dbms> dbc)
 	{
-		throw new RuntimeException("HSQL Retrospection not implemented yet!");
+		if(this.warmUp != null)
+		{
+			try
+			{
+				this.warmUp.runIfEnabled();
+			}
+			catch(final DBException e)
+			{
+				throw new SQLEngineException(e);
+			}
+		}
 	}
 	
 	/**
-	 * @see DbmsAdaptor#initialize(DatabaseGateway)
+	 * @return the warm-up run by {@link #initialize(DatabaseGateway)}, may be <code>null</code>
 	 */
-	@Override
-	public void initialize(final DatabaseGateway<HSQL2Dbms> dbc)
+	public HSQL2WarmUp getWarmUp()
 	{
+		return this.warmUp;
+	}
+	
+	/**
+	 * @param warmUp the warm-up to run by {@link #initialize(DatabaseGateway)}
+	 */
+	public void setWarmUp(final HSQL2WarmUp warmUp)
+	{
+		this.warmUp = warmUp;
 	}
 	
 	/**
@@ -139,4 +199,22 @@ public class HSQL2Dbms
 	{
 		return IDENTIFIER_DELIMITER;
 	}
+	
+	/**
+	 * Appends the name as delimited identifier, doubling contained {@link #IDENTIFIER_DELIMITER}s.
+	 */
+	static StringBuilder appendIdentifier(final String name, final StringBuilder sb)
+	{
+		sb.append(IDENTIFIER_DELIMITER);
+		for(int i = 0, length = name.length(); i < length; i++)
+		{
+			final char c = name.charAt(i);
+			if(c == IDENTIFIER_DELIMITER)
+			{
+				sb.append(IDENTIFIER_DELIMITER);
+			}
+			sb.append(c);
+		}
+		return sb.append(IDENTIFIER_DELIMITER);
+	}
 }
@@ -0,0 +1,169 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import java.util.Arrays;
+
+
+/**
+ * Estimates the number of distinct values of a column by keeping the <code>k</code> smallest hash values seen and
+ * how often each of them occurred (an augmented k minimum values sketch). The memory used is independent of the
+ * number of values added.
+ * <p>
+ * The occurrence counts allow to estimate the number of values seen exactly once, which is needed to extrapolate the
+ * distinct count of a sample to the whole table.
+ *
+ * @see HSQL2TableStatistics
+ */
+final class HSQL2DistinctSketch
+{
+	/**
+	 * The default number of hash values kept.
+	 */
+	static final int DEFAULT_SIZE = 1024;
+	
+	private final long[] hashes;
+	private final int[] counts;
+	private int size;
+	private long valueCount;
+	
+	HSQL2DistinctSketch(final int k)
+	{
+		this.hashes = new long[Math.max(2, k)];
+		this.counts = new int[this.hashes.length];
+	}
+	
+	/**
+	 * Adds a value, <code>null</code> is not allowed.
+	 */
+	void add(final Object value)
+	{
+		this.valueCount++;
+		
+		final long hash = hash(value) >>> 1;
+		int index = Arrays.binarySearch(this.hashes, 0, this.size, hash);
+		if(index >= 0)
+		{
+			this.counts[index]++;
+			return;
+		}
+		
+		index = -index - 1;
+		if(index == this.hashes.length)
+		{
+			// larger than all kept hash values
+			return;
+		}
+		if(this.size == this.hashes.length)
+		{
+			this.size--;
+		}
+		System.arraycopy(this.hashes, index, this.hashes, index + 1, this.size - index);
+		System.arraycopy(this.counts, index, this.counts, index + 1, this.size - index);
+		this.hashes[index] = hash;
+		this.counts[index] = 1;
+		this.size++;
+	}
+	
+	/**
+	 * @return the number of values added
+	 */
+	long getValueCount()
+	{
+		return this.valueCount;
+	}
+	
+	/**
+	 * @return the estimated number of distinct values added, exact as long as it is smaller than <code>k</code>
+	 */
+	double estimateDistinct()
+	{
+		if(this.size < this.hashes.length)
+		{
+			return this.size;
+		}
+		// the k-th smallest of n uniform hash values is about k / n
+		final double kthSmallest = (this.hashes[this.size - 1] + 1) / (double)Long.MAX_VALUE;
+		return Math.min(this.valueCount, (this.size - 1) / kthSmallest);
+	}
+	
+	/**
+	 * @return the estimated number of distinct values which have been added exactly once
+	 */
+	double estimateSingletons()
+	{
+		if(this.size == 0)
+		{
+			return 0;
+		}
+		int singletons = 0;
+		for(int i = 0; i < this.size; i++)
+		{
+			if(this.counts[i] == 1)
+			{
+				singletons++;
+			}
+		}
+		return this.estimateDistinct() * singletons / this.size;
+	}
+	
+	/**
+	 * Spreads the bits of the value over 64 bits. Equal values, as defined by the database, get the same hash.
+	 */
+	static long hash(final Object value)
+	{
+		long h;
+		if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+		{
+			h = ((Number)value).longValue();
+		}
+		else if(value instanceof Double || value instanceof Float)
+		{
+			h = Double.doubleToLongBits(((Number)value).doubleValue());
+		}
+		else if(value instanceof CharSequence)
+		{
+			final CharSequence chars = (CharSequence)value;
+			h = 0xcbf29ce484222325L;
+			for(int i = 0; i < chars.length(); i++)
+			{
+				h = (h ^ chars.charAt(i)) * 0x100000001b3L;
+			}
+		}
+		else if(value instanceof byte[])
+		{
+			h = 0xcbf29ce484222325L;
+			for(final byte b : (byte[])value)
+			{
+				h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+			}
+		}
+		else
+		{
+			h = value.hashCode();
+		}
+		
+		// finalizer of MurmurHash3
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,543 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import xdev.db.DBException;
+
+
+/**
+ * Exports query results of a {@link HSQL2JDBCDataSource} to a stream.
+ * <p>
+ * The rows are read with a forward-only, read-only cursor and handed in chunks to a separate writer thread, which
+ * encodes them. The queue between reader and writer holds at most {@link #getQueueCapacity()} chunks, so the
+ * memory used is bounded independent of the size of the result.
+ * <p>
+ * Two formats are supported:
+ * <ul>
+ * <li>{@link Format#CSV}: UTF-8, a header line with the column labels, values quoted as in RFC 4180 where
+ * needed, <code>NULL</code> as empty field, binary values in hex.</li>
+ * <li>{@link Format#BINARY}: big-endian as written by {@link DataOutputStream}. The header is the magic
+ * <code>HSX1</code>, the column count as int and for each column its label as UTF and its
+ * {@link java.sql.Types} code as int. Each row starts with the byte <code>1</code>, followed by one tagged value
+ * per column, see the <code>TAG_*</code> constants. The byte <code>0</code> ends the stream.</li>
+ * </ul>
+ *
+ * @see HSQL2JDBCDataSource#createExporter()
+ */
+public class HSQL2Exporter
+{
+	public enum Format
+	{
+		CSV,
+		BINARY
+	}
+	
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+	public static final int DEFAULT_QUEUE_CAPACITY = 8;
+	
+	public static final byte TAG_NULL = 0;
+	/**
+	 * A long, used for all integral types.
+	 */
+	public static final byte TAG_LONG = 1;
+	public static final byte TAG_DOUBLE = 2;
+	/**
+	 * A string as int byte length followed by its UTF-8 bytes, also used for decimals.
+	 */
+	public static final byte TAG_STRING = 3;
+	/**
+	 * A byte array as int length followed by the bytes.
+	 */
+	public static final byte TAG_BYTES = 4;
+	public static final byte TAG_BOOLEAN = 5;
+	/**
+	 * Milliseconds since the epoch as long followed by the nanos as int.
+	 */
+	public static final byte TAG_TIMESTAMP = 6;
+	/**
+	 * Milliseconds since the epoch as long, used for dates and times.
+	 */
+	public static final byte TAG_DATE = 7;
+	
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	
+	private static final List<Object[]> END = Collections.emptyList();
+	
+	/**
+	 * Milliseconds to wait for the writer to stop after the export failed.
+	 */
+	private static final long WRITER_STOP_TIMEOUT = 10000;
+	
+	private final HSQL2JDBCDataSource dataSource;
+	
+	private Format format = Format.CSV;
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	
+	public HSQL2Exporter(HSQL2JDBCDataSource dataSource)
+	{
+		this.dataSource = dataSource;
+	}
+	
+	public Format getFormat()
+	{
+		return format;
+	}
+	
+	public void setFormat(Format format)
+	{
+		this.format = format;
+	}
+	
+	public int getFetchSize()
+	{
+		return fetchSize;
+	}
+	
+	/**
+	 * Sets the number of rows the JDBC driver fetches from the server at once.
+	 */
+	public void setFetchSize(int fetchSize)
+	{
+		this.fetchSize = fetchSize;
+	}
+	
+	public int getChunkSize()
+	{
+		return chunkSize;
+	}
+	
+	/**
+	 * Sets the number of rows handed to the writer thread at once.
+	 */
+	public void setChunkSize(int chunkSize)
+	{
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+	
+	public int getQueueCapacity()
+	{
+		return queueCapacity;
+	}
+	
+	/**
+	 * Sets the number of chunks which may wait for the writer thread before the reader blocks.
+	 */
+	public void setQueueCapacity(int queueCapacity)
+	{
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+	
+	/**
+	 * Exports all rows of a table.
+	 *
+	 * @param schema the schema of the table, may be <code>null</code>
+	 * @param table  the name of the table
+	 * @param out    the stream to write to, it is flushed but not closed
+	 * @return the number of exported rows
+	 */
+	public long exportTable(String schema, String table, OutputStream out) throws DBException
+	{
+		StringBuilder sql = new StringBuilder("SELECT * FROM ");
+		if(schema != null && schema.length() > 0)
+		{
+			HSQL2Dbms.appendIdentifier(schema, sql).append('.');
+		}
+		HSQL2Dbms.appendIdentifier(table, sql);
+		return export(sql.toString(), out);
+	}
+	
+	/**
+	 * Exports the result of a query.
+	 *
+	 * @param sql    the query
+	 * @param out    the stream to write to, it is flushed but not closed
+	 * @param params the parameters of the query
+	 * @return the number of exported rows
+	 */
+	public long export(String sql, OutputStream out, Object... params) throws DBException
+	{
+		BlockingQueue<List<Object[]>> queue = new ArrayBlockingQueue<>(queueCapacity);
+		AtomicReference<Throwable> writerError = new AtomicReference<>();
+		Thread writer = null;
+		long count = 0;
+		
+		try(Connection connection = dataSource.borrowConnection())
+		{
+			boolean readOnly = connection.isReadOnly();
+			connection.setReadOnly(true);
+			try(PreparedStatement statement = connection.prepareStatement(
+				sql,
+				ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY))
+			{
+				statement.setFetchSize(fetchSize);
+				for(int i = 0; i < params.length; i++)
+				{
+					statement.setObject(i + 1, params[i]);
+				}
+				
+				try(ResultSet rs = statement.executeQuery())
+				{
+					ResultSetMetaData meta = rs.getMetaData();
+					int columnCount = meta.getColumnCount();
+					String[] labels = new String[columnCount];
+					int[] types = new int[columnCount];
+					for(int i = 0; i < columnCount; i++)
+					{
+						labels[i] = meta.getColumnLabel(i + 1);
+						types[i] = meta.getColumnType(i + 1);
+					}
+					
+					RowWriter rowWriter = format == Format.BINARY ? new BinaryRowWriter(out) : new CsvRowWriter(out);
+					writer = new Thread(() -> {
+						try
+						{
+							rowWriter.writeHeader(labels, types);
+							List<Object[]> chunk;
+							while((chunk = queue.take()) != END)
+							{
+								for(Object[] row : chunk)
+								{
+									if(Thread.currentThread().isInterrupted())
+									{
+										throw new InterruptedException();
+									}
+									rowWriter.writeRow(row);
+								}
+							}
+							rowWriter.finish();
+						}
+						catch(Throwable t)
+						{
+							writerError.set(t);
+							queue.clear();
+						}
+					}, "HSQL2Exporter-writer");
+					writer.setDaemon(true);
+					writer.start();
+					
+					List<Object[]> chunk = new ArrayList<>(chunkSize);
+					while(rs.next())
+					{
+						Object[] row = new Object[columnCount];
+						for(int i = 0; i < columnCount; i++)
+						{
+							row[i] = readValue(rs, i + 1);
+						}
+						chunk.add(row);
+						count++;
+						
+						if(chunk.size() == chunkSize)
+						{
+							if(!offer(queue, chunk, writer, writerError))
+							{
+								break;
+							}
+							chunk = new ArrayList<>(chunkSize);
+						}
+					}
+					
+					if(!chunk.isEmpty())
+					{
+						offer(queue, chunk, writer, writerError);
+					}
+					offer(queue, END, writer, writerError);
+					writer.join();
+				}
+			}
+			finally
+			{
+				connection.setReadOnly(readOnly);
+			}
+		}
+		catch(SQLException | RuntimeException e)
+		{
+			stopWriter(writer);
+			throw new DBException(dataSource, e);
+		}
+		catch(InterruptedException e)
+		{
+			stopWriter(writer);
+			Thread.currentThread().interrupt();
+			throw new DBException(dataSource, e);
+		}
+		
+		if(writerError.get() != null)
+		{
+			throw new DBException(dataSource, writerError.get());
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Stops the writer and waits until it does not touch the output stream anymore, so that the caller may close or
+	 * reuse the stream after the export has failed.
+	 */
+	private static void stopWriter(Thread writer)
+	{
+		if(writer == null)
+		{
+			return;
+		}
+		writer.interrupt();
+		try
+		{
+			writer.join(WRITER_STOP_TIMEOUT);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Hands a chunk to the writer, waiting while the queue is full.
+	 *
+	 * @return <code>false</code> if the writer has failed
+	 */
+	private static boolean offer(
+		BlockingQueue<List<Object[]>> queue, List<Object[]> chunk, Thread writer,
+		AtomicReference<Throwable> writerError) throws InterruptedException
+	{
+		while(!queue.offer(chunk, 100, TimeUnit.MILLISECONDS))
+		{
+			if(writerError.get() != null || !writer.isAlive())
+			{
+				return false;
+			}
+		}
+		return writerError.get() == null;
+	}
+	
+	/**
+	 * Reads a value, LOBs are materialized since they are only valid while the cursor is on the row.
+	 */
+	private static Object readValue(ResultSet rs, int column) throws SQLException
+	{
+		Object value = rs.getObject(column);
+		if(value instanceof Clob)
+		{
+			Clob clob = (Clob)value;
+			return clob.getSubString(1, (int)clob.length());
+		}
+		if(value instanceof Blob)
+		{
+			Blob blob = (Blob)value;
+			return blob.getBytes(1, (int)blob.length());
+		}
+		return value;
+	}
+	
+	private interface RowWriter
+	{
+		void writeHeader(String[] labels, int[] types) throws IOException;
+		
+		void writeRow(Object[] row) throws IOException;
+		
+		void finish() throws IOException;
+	}
+	
+	private static final class CsvRowWriter implements RowWriter
+	{
+		private final Writer writer;
+		private final StringBuilder sb = new StringBuilder(256);
+		
+		CsvRowWriter(OutputStream out)
+		{
+			this.writer = new OutputStreamWriter(new BufferedOutputStream(out, 1 << 16), StandardCharsets.UTF_8);
+		}
+		
+		@Override
+		public void writeHeader(String[] labels, int[] types) throws IOException
+		{
+			writeRow(labels);
+		}
+		
+		@Override
+		public void writeRow(Object[] row) throws IOException
+		{
+			sb.setLength(0);
+			for(int i = 0; i < row.length; i++)
+			{
+				if(i > 0)
+				{
+					sb.append(',');
+				}
+				appendValue(row[i]);
+			}
+			sb.append("\r\n");
+			writer.append(sb);
+		}
+		
+		private void appendValue(Object value)
+		{
+			if(value == null)
+			{
+				return;
+			}
+			if(value instanceof byte[])
+			{
+				for(byte b : (byte[])value)
+				{
+					sb.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+				}
+				return;
+			}
+			
+			String str = value instanceof BigDecimal ? ((BigDecimal)value).toPlainString() : value.toString();
+			boolean quote = false;
+			for(int i = 0, len = str.length(); i < len && !quote; i++)
+			{
+				char ch = str.charAt(i);
+				quote = ch == ',' || ch == '"' || ch == '\r' || ch == '\n';
+			}
+			if(quote)
+			{
+				sb.append('"').append(str.replace("\"", "\"\"")).append('"');
+			}
+			else
+			{
+				sb.append(str);
+			}
+		}
+		
+		@Override
+		public void finish() throws IOException
+		{
+			writer.flush();
+		}
+	}
+	
+	private static final class BinaryRowWriter implements RowWriter
+	{
+		private final DataOutputStream out;
+		
+		BinaryRowWriter(OutputStream out)
+		{
+			this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		}
+		
+		@Override
+		public void writeHeader(String[] labels, int[] types) throws IOException
+		{
+			out.writeBytes("HSX1");
+			out.writeInt(labels.length);
+			for(int i = 0; i < labels.length; i++)
+			{
+				out.writeUTF(labels[i]);
+				out.writeInt(types[i]);
+			}
+		}
+		
+		@Override
+		public void writeRow(Object[] row) throws IOException
+		{
+			out.writeByte(1);
+			for(Object value : row)
+			{
+				writeValue(value);
+			}
+		}
+		
+		private void writeValue(Object value) throws IOException
+		{
+			if(value == null)
+			{
+				out.writeByte(TAG_NULL);
+			}
+			else if(value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte)
+			{
+				out.writeByte(TAG_LONG);
+				out.writeLong(((Number)value).longValue());
+			}
+			else if(value instanceof Double || value instanceof Float)
+			{
+				out.writeByte(TAG_DOUBLE);
+				out.writeDouble(((Number)value).doubleValue());
+			}
+			else if(value instanceof Boolean)
+			{
+				out.writeByte(TAG_BOOLEAN);
+				out.writeBoolean((Boolean)value);
+			}
+			else if(value instanceof byte[])
+			{
+				byte[] bytes = (byte[])value;
+				out.writeByte(TAG_BYTES);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			else if(value instanceof Timestamp)
+			{
+				Timestamp timestamp = (Timestamp)value;
+				out.writeByte(TAG_TIMESTAMP);
+				out.writeLong(timestamp.getTime());
+				out.writeInt(timestamp.getNanos());
+			}
+			else if(value instanceof java.util.Date)
+			{
+				out.writeByte(TAG_DATE);
+				out.writeLong(((java.util.Date)value).getTime());
+			}
+			else
+			{
+				String str = value instanceof BigDecimal ? ((BigDecimal)value).toPlainString() : value.toString();
+				byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+				out.writeByte(TAG_STRING);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+		
+		@Override
+		public void finish() throws IOException
+		{
+			out.writeByte(0);
+			out.flush();
+		}
+	}
+}
@@ -18,22 +18,158 @@
 package xdev.db.hsql2.jdbc;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import xdev.db.DBException;
+import xdev.db.Result;
+import xdev.db.WriteResult;
 import xdev.db.jdbc.JDBCConnection;
 
 
 public class HSQL2JDBCConnection extends JDBCConnection<HSQL2JDBCDataSource, HSQL2Dbms>
 {
+	public static final int DEFAULT_BULK_BATCH_SIZE = 1000;
+	public static final int DEFAULT_BULK_COMMIT_INTERVAL = 50000;
+	public static final int DEFAULT_UPSERT_ROWS_PER_STATEMENT = 100;
+	
+	private volatile int fetchSize = -1;
+	private volatile int resultMemoryRows = -1;
+	
+	/**
+	 * The fetch size and result memory rows of a {@link #query(int, int, String, Object...)} running on the current
+	 * thread, <code>-1</code> for the values of this connection.
+	 */
+	private final ThreadLocal<int[]> querySettings = new ThreadLocal<>();
+	
 	public HSQL2JDBCConnection(HSQL2JDBCDataSource dataSource)
 	{
 		super(dataSource);
 	}
 	
+	/**
+	 * Uses a pooled connection if pooling is enabled for the data source, and applies the fetch size and result
+	 * memory rows of this connection.
+	 *
+	 * @see HSQL2JDBCDataSource#borrowConnection()
+	 */
+	@Override
+	public Connection getConnection() throws DBException
+	{
+		int connectionFetchSize = getFetchSize();
+		int connectionResultMemoryRows = getResultMemoryRows();
+		int[] settings = querySettings.get();
+		if(settings != null)
+		{
+			if(settings[0] >= 0)
+			{
+				connectionFetchSize = settings[0];
+			}
+			if(settings[1] >= 0)
+			{
+				connectionResultMemoryRows = settings[1];
+			}
+		}
+		
+		Connection connection = getDataSource().borrowConnection();
+		try
+		{
+			return HSQL2SessionConnection.wrap(
+				connection,
+				connectionFetchSize,
+				connectionResultMemoryRows,
+				getDataSource().getResultMemoryRows());
+		}
+		catch(SQLException e)
+		{
+			try
+			{
+				connection.close();
+			}
+			catch(SQLException e1)
+			{
+				// ignore, the first exception is reported
+			}
+			throw new DBException(getDataSource(), e);
+		}
+	}
+	
+	/**
+	 * @return the fetch size used by this connection, by default {@link HSQL2JDBCDataSource#FETCH_SIZE}
+	 */
+	public int getFetchSize()
+	{
+		return fetchSize >= 0 ? fetchSize : getDataSource().getFetchSize();
+	}
+	
+	/**
+	 * Overrides {@link HSQL2JDBCDataSource#FETCH_SIZE} for this connection, <code>-1</code> to use the data source's
+	 * value again.
+	 */
+	public void setFetchSize(int fetchSize)
+	{
+		this.fetchSize = fetchSize;
+	}
+	
+	/**
+	 * @return the result memory rows used by this connection, by default
+	 *         {@link HSQL2JDBCDataSource#RESULT_MEMORY_ROWS}
+	 */
+	public int getResultMemoryRows()
+	{
+		return resultMemoryRows >= 0 ? resultMemoryRows : getDataSource().getResultMemoryRows();
+	}
+	
+	/**
+	 * Overrides {@link HSQL2JDBCDataSource#RESULT_MEMORY_ROWS} for this connection, <code>-1</code> to use the data
+	 * source's value again.
+	 */
+	public void setResultMemoryRows(int resultMemoryRows)
+	{
+		this.resultMemoryRows = resultMemoryRows;
+	}
+	
+	/**
+	 * Runs a query with the given fetch size and result memory rows instead of the ones of this connection. The
+	 * values only apply to the connection borrowed for this query, other queries running at the same time are not
+	 * affected.
+	 *
+	 * @param fetchSize        the fetch size, <code>-1</code> to keep the one of this connection
+	 * @param resultMemoryRows the result memory rows, <code>-1</code> to keep the one of this connection
+	 */
+	public Result query(int fetchSize, int resultMemoryRows, String sql, Object... params) throws DBException
+	{
+		int[] outer = querySettings.get();
+		querySettings.set(new int[]{fetchSize, resultMemoryRows});
+		try
+		{
+			return query(sql, params);
+		}
+		finally
+		{
+			if(outer != null)
+			{
+				querySettings.set(outer);
+			}
+			else
+			{
+				querySettings.remove();
+			}
+		}
+	}
+	
 	@Override
 	public void createTable(
 		String tableName, String primaryKey, Map<String, String> columnMap,
@@ -76,26 +212,539 @@ public class HSQL2JDBCConnection extends JDBCConnection<HSQL2JDBCDataSource, HSQ
 			log.debug("SQL Statement to create a table: " + createStatement); //$NON-NLS-1$
 		}
 		
-		Connection connection = super.getConnection();
-		Statement statement = connection.createStatement();
-		try
+		try(Connection connection = getConnection();
+			Statement statement = connection.createStatement())
 		{
 			statement.execute(createStatement.toString());
 		}
-		catch(Exception e)
+		
+		getDataSource().getMetaDataCache().invalidateTableInfos();
+		getDataSource().getDbmsAdaptor().getRetrospectionAccessor().invalidate(null, tableName);
+	}
+	
+	/**
+	 * Runs {@link #query(String, Object...)} on a worker of the data source's {@link HSQL2AsyncExecutor}.
+	 */
+	public CompletableFuture<Result> queryAsync(String sql, Object... params)
+	{
+		return getDataSource().getAsyncExecutor().submit(() -> query(sql, params));
+	}
+	
+	/**
+	 * Runs {@link #write(String, boolean, Object...)} on a worker of the data source's {@link HSQL2AsyncExecutor}.
+	 */
+	public CompletableFuture<WriteResult> writeAsync(String sql, boolean returnGeneratedKeys, Object... params)
+	{
+		return getDataSource().getAsyncExecutor().submit(() -> write(sql, returnGeneratedKeys, params));
+	}
+	
+	/**
+	 * Inserts rows into a table with {@link #DEFAULT_BULK_BATCH_SIZE} rows per batch and a commit every
+	 * {@link #DEFAULT_BULK_COMMIT_INTERVAL} rows.
+	 *
+	 * @see #bulkInsert(String, String[], Iterator, int, int, boolean)
+	 */
+	public long bulkInsert(String tableName, String[] columnNames, Iterator<Object[]> rows) throws DBException
+	{
+		return bulkInsert(tableName, columnNames, rows, DEFAULT_BULK_BATCH_SIZE, DEFAULT_BULK_COMMIT_INTERVAL, false);
+	}
+	
+	/**
+	 * Inserts rows into a table with JDBC batches on one connection.
+	 * <p>
+	 * With <code>relaxLogging</code> the redo log of the database is switched off during the load by
+	 * <code>SET FILES LOG FALSE</code>, which requires admin rights. Afterwards the log is switched on again and a
+	 * <code>CHECKPOINT</code> writes the loaded data to disk. Rows inserted while the log is off are lost if the
+	 * database is not shut down properly before the checkpoint.
+	 * <p>
+	 * If an insert fails, the rows since the last commit are rolled back.
+	 *
+	 * @param tableName      the name of the table
+	 * @param columnNames    the names of the columns to fill
+	 * @param rows           the rows, each holding one value per column
+	 * @param batchSize      the number of rows sent per batch
+	 * @param commitInterval the number of rows per transaction, <code>0</code> to commit once at the end
+	 * @param relaxLogging   <code>true</code> to switch off the redo log during the load
+	 * @return the number of inserted rows
+	 * @throws IllegalArgumentException if a row does not hold one value per column; the rows since the last commit
+	 *                                  are rolled back then
+	 */
+	public long bulkInsert(
+		String tableName, String[] columnNames, Iterator<Object[]> rows, int batchSize,
+		int commitInterval, boolean relaxLogging) throws DBException
+	{
+		if(batchSize < 1)
 		{
-			throw e;
+			throw new IllegalArgumentException("batchSize < 1");
 		}
-		finally
+		
+		StringBuilder sql = new StringBuilder("INSERT INTO ");
+		HSQL2Dbms.appendIdentifier(tableName, sql).append(" (");
+		for(int i = 0; i < columnNames.length; i++)
+		{
+			if(i > 0)
+			{
+				sql.append(", ");
+			}
+			HSQL2Dbms.appendIdentifier(columnNames[i], sql);
+		}
+		sql.append(") VALUES (");
+		for(int i = 0; i < columnNames.length; i++)
+		{
+			sql.append(i > 0 ? ", ?" : "?");
+		}
+		sql.append(")");
+		
+		if(log.isDebugEnabled())
+		{
+			log.debug("Bulk insert: " + sql); //$NON-NLS-1$
+		}
+		
+		long count = 0;
+		try(Connection connection = getConnection())
+		{
+			boolean logDisabled = relaxLogging && disableLogging(connection);
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try(PreparedStatement statement = connection.prepareStatement(sql.toString()))
+			{
+				int pending = 0;
+				long uncommitted = 0;
+				while(rows.hasNext())
+				{
+					Object[] row = rows.next();
+					checkRowLength(row, columnNames.length);
+					for(int i = 0; i < columnNames.length; i++)
+					{
+						statement.setObject(i + 1, row[i]);
+					}
+					statement.addBatch();
+					pending++;
+					uncommitted++;
+					
+					if(pending == batchSize)
+					{
+						statement.executeBatch();
+						pending = 0;
+					}
+					if(commitInterval > 0 && uncommitted >= commitInterval)
+					{
+						if(pending > 0)
+						{
+							statement.executeBatch();
+							pending = 0;
+						}
+						connection.commit();
+						count += uncommitted;
+						uncommitted = 0;
+					}
+				}
+				
+				if(pending > 0)
+				{
+					statement.executeBatch();
+				}
+				connection.commit();
+				count += uncommitted;
+			}
+			catch(SQLException | RuntimeException e)
+			{
+				connection.rollback();
+				throw e;
+			}
+			finally
+			{
+				connection.setAutoCommit(autoCommit);
+				if(logDisabled)
+				{
+					enableLogging(connection);
+				}
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(getDataSource(), e);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Queries one page of a table with keyset pagination.
+	 *
+	 * @param schema      the schema of the table, may be <code>null</code>
+	 * @param tableName   the name of the table
+	 * @param columns     the columns to select, <code>null</code> or empty for all columns
+	 * @param where       an additional condition, may be <code>null</code>
+	 * @param keyColumns  the columns of the unique sort key
+	 * @param descending  the sort direction per key column, <code>null</code> to sort all ascending
+	 * @param lastKey     the key values of the last row of the previous page, <code>null</code> for the first page
+	 * @param pageSize    the maximum number of rows of the page
+	 * @param whereParams the parameters of <code>where</code>
+	 * @see HSQL2DMLAssembler#assembleKeysetPage(String, String, String[], String, String[], boolean[], boolean, int)
+	 */
+	public Result queryPage(
+		String schema, String tableName, String[] columns, String where, String[] keyColumns,
+		boolean[] descending, Object[] lastKey, int pageSize, Object... whereParams) throws DBException
+	{
+		String sql = getDataSource().getDbmsAdaptor().getDMLAssembler().assembleKeysetPage(
+			schema,
+			tableName,
+			columns,
+			where,
+			keyColumns,
+			descending,
+			lastKey != null,
+			pageSize);
+		
+		Object[] params = whereParams;
+		if(lastKey != null)
 		{
-			statement.close();
-			connection.close();
+			Object[] keyParams = HSQL2DMLAssembler.getKeysetParameters(lastKey);
+			params = Arrays.copyOf(whereParams, whereParams.length + keyParams.length);
+			System.arraycopy(keyParams, 0, params, whereParams.length, keyParams.length);
 		}
+		
+		return query(sql, params);
+	}
+	
+	/**
+	 * Inserts rows with multi-row <code>INSERT ... VALUES (...), (...)</code> statements in one transaction. The
+	 * number of rows per statement is chosen by
+	 * {@link HSQL2DMLAssembler#getInsertRowsPerStatement(String, String, String[])}.
+	 *
+	 * @param schema    the schema of the table, may be <code>null</code>
+	 * @param tableName the name of the table
+	 * @param columns   the columns to set
+	 * @param rows      the rows, each holding one value per column
+	 * @return the number of inserted rows
+	 * @throws IllegalArgumentException if a row does not hold one value per column; no row is inserted then
+	 */
+	public long insertRows(String schema, String tableName, String[] columns, List<Object[]> rows)
+		throws DBException
+	{
+		if(rows.isEmpty())
+		{
+			return 0;
+		}
+		
+		HSQL2DMLAssembler assembler = getDataSource().getDbmsAdaptor().getDMLAssembler();
+		int rowsPerStatement = Math.min(rows.size(), assembler.getInsertRowsPerStatement(schema, tableName, columns));
+		
+		long count = 0;
+		try(Connection connection = getConnection())
+		{
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try
+			{
+				int full = rows.size() / rowsPerStatement * rowsPerStatement;
+				if(full > 0)
+				{
+					try(PreparedStatement statement = connection.prepareStatement(assembler.assembleINSERT(
+						schema,
+						tableName,
+						columns,
+						rowsPerStatement)))
+					{
+						for(int start = 0; start < full; start += rowsPerStatement)
+						{
+							count += executeRows(
+								statement,
+								rows.subList(start, start + rowsPerStatement),
+								columns.length);
+						}
+					}
+				}
+				if(full < rows.size())
+				{
+					try(PreparedStatement statement = connection.prepareStatement(assembler.assembleINSERT(
+						schema,
+						tableName,
+						columns,
+						rows.size() - full)))
+					{
+						count += executeRows(statement, rows.subList(full, rows.size()), columns.length);
+					}
+				}
+				connection.commit();
+			}
+			catch(SQLException | RuntimeException e)
+			{
+				connection.rollback();
+				throw e;
+			}
+			finally
+			{
+				connection.setAutoCommit(autoCommit);
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(getDataSource(), e);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Inserts a row or updates the existing row with the same key with one <code>MERGE</code> statement.
+	 *
+	 * @param schema     the schema of the table, may be <code>null</code>
+	 * @param tableName  the name of the table
+	 * @param keyColumns the columns identifying a row, a subset of <code>columns</code>
+	 * @param columns    the columns to set
+	 * @param values     one value per column
+	 * @return the number of inserted or updated rows
+	 * @see HSQL2DMLAssembler#assembleMERGE(String, String, String[], String[])
+	 */
+	public int upsert(String schema, String tableName, String[] keyColumns, String[] columns, Object... values)
+		throws DBException
+	{
+		checkRowLength(values, columns.length);
+		String sql = getDataSource().getDbmsAdaptor().getDMLAssembler().assembleMERGE(
+			schema,
+			tableName,
+			keyColumns,
+			columns);
+		
+		try(Connection connection = getConnection();
+			PreparedStatement statement = connection.prepareStatement(sql))
+		{
+			for(int i = 0; i < values.length; i++)
+			{
+				statement.setObject(i + 1, values[i]);
+			}
+			return statement.executeUpdate();
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(getDataSource(), e);
+		}
+	}
+	
+	/**
+	 * Upserts rows with {@link #DEFAULT_UPSERT_ROWS_PER_STATEMENT} rows per <code>MERGE</code> execution.
+	 *
+	 * @see #upsertBatch(String, String, String[], String[], Iterator, int)
+	 */
+	public long upsertBatch(
+		String schema, String tableName, String[] keyColumns, String[] columns,
+		Iterator<Object[]> rows) throws DBException
+	{
+		return upsertBatch(schema, tableName, keyColumns, columns, rows, DEFAULT_UPSERT_ROWS_PER_STATEMENT);
+	}
+	
+	/**
+	 * Inserts rows or updates the existing rows with the same keys, merging up to <code>rowsPerStatement</code> rows
+	 * with each execution of a <code>MERGE</code> statement. All rows are upserted in one transaction. If a key
+	 * occurs again before a statement is full, the rows collected so far are merged first, so that later rows win.
+	 *
+	 * @param schema           the schema of the table, may be <code>null</code>
+	 * @param tableName        the name of the table
+	 * @param keyColumns       the columns identifying a row, a subset of <code>columns</code>
+	 * @param columns          the columns to set
+	 * @param rows             the rows, each holding one value per column
+	 * @param rowsPerStatement the maximum number of rows merged by one execution
+	 * @return the number of inserted or updated rows
+	 * @throws IllegalArgumentException if a key column is not part of <code>columns</code>, or a row does not hold
+	 *                                  one value per column; no row is upserted then
+	 */
+	public long upsertBatch(
+		String schema, String tableName, String[] keyColumns, String[] columns,
+		Iterator<Object[]> rows, int rowsPerStatement) throws DBException
+	{
+		HSQL2DMLAssembler assembler = getDataSource().getDbmsAdaptor().getDMLAssembler();
+		if(keyColumns.length == 0)
+		{
+			throw new IllegalArgumentException("At least one key column is required");
+		}
+		int[] keyIndices = new int[keyColumns.length];
+		for(int i = 0; i < keyColumns.length; i++)
+		{
+			keyIndices[i] = Arrays.asList(columns).indexOf(keyColumns[i]);
+			if(keyIndices[i] < 0)
+			{
+				throw new IllegalArgumentException("Key column " + keyColumns[i] + " is not part of the columns");
+			}
+		}
+		
+		long count = 0;
+		try(Connection connection = getConnection())
+		{
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			PreparedStatement fullStatement = null;
+			try
+			{
+				List<Object[]> chunk = new ArrayList<>(rowsPerStatement);
+				Set<List<Object>> keys = new HashSet<>();
+				while(rows.hasNext())
+				{
+					Object[] row = rows.next();
+					checkRowLength(row, columns.length);
+					List<Object> key = new ArrayList<>(keyIndices.length);
+					for(int index : keyIndices)
+					{
+						key.add(row[index]);
+					}
+					
+					if(!keys.add(key))
+					{
+						count += merge(connection, assembler, schema, tableName, keyColumns, columns, chunk);
+						chunk.clear();
+						keys.clear();
+						keys.add(key);
+					}
+					chunk.add(row);
+					
+					if(chunk.size() == rowsPerStatement)
+					{
+						if(fullStatement == null)
+						{
+							fullStatement = connection.prepareStatement(assembler.assembleMERGE(
+								schema,
+								tableName,
+								keyColumns,
+								columns,
+								rowsPerStatement));
+						}
+						count += executeRows(fullStatement, chunk, columns.length);
+						chunk.clear();
+						keys.clear();
+					}
+				}
+				
+				count += merge(connection, assembler, schema, tableName, keyColumns, columns, chunk);
+				connection.commit();
+			}
+			catch(SQLException | RuntimeException e)
+			{
+				connection.rollback();
+				throw e;
+			}
+			finally
+			{
+				if(fullStatement != null)
+				{
+					fullStatement.close();
+				}
+				connection.setAutoCommit(autoCommit);
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(getDataSource(), e);
+		}
+		
+		return count;
+	}
+	
+	private static int merge(
+		Connection connection, HSQL2DMLAssembler assembler, String schema, String tableName,
+		String[] keyColumns, String[] columns, List<Object[]> rows) throws SQLException
+	{
+		if(rows.isEmpty())
+		{
+			return 0;
+		}
+		
+		try(PreparedStatement statement = connection.prepareStatement(assembler.assembleMERGE(
+			schema,
+			tableName,
+			keyColumns,
+			columns,
+			rows.size())))
+		{
+			return executeRows(statement, rows, columns.length);
+		}
+	}
+	
+	/**
+	 * Binds the values of the rows, row by row, and executes the statement.
+	 *
+	 * @throws IllegalArgumentException if a row does not hold exactly one value per column, which would shift the
+	 *                                  following values into wrong columns
+	 */
+	private static int executeRows(PreparedStatement statement, List<Object[]> rows, int columnCount)
+		throws SQLException
+	{
+		int index = 1;
+		for(Object[] row : rows)
+		{
+			checkRowLength(row, columnCount);
+			for(Object value : row)
+			{
+				statement.setObject(index++, value);
+			}
+		}
+		return statement.executeUpdate();
 	}
 	
+	private static void checkRowLength(Object[] row, int columnCount)
+	{
+		if(row.length != columnCount)
+		{
+			throw new IllegalArgumentException("Row has " + row.length + " values, expected " + columnCount);
+		}
+	}
+	
+	/**
+	 * Switches off the redo log if it is on.
+	 *
+	 * @return <code>true</code> if the log has been switched off
+	 */
+	private static boolean disableLogging(Connection connection) throws SQLException
+	{
+		try(Statement statement = connection.createStatement())
+		{
+			try(ResultSet rs = statement.executeQuery("SELECT PROPERTY_VALUE " //$NON-NLS-1$
+				+ "FROM INFORMATION_SCHEMA.SYSTEM_PROPERTIES WHERE PROPERTY_NAME = 'hsqldb.log_data'")) //$NON-NLS-1$
+			{
+				if(!rs.next() || !Boolean.parseBoolean(rs.getString(1)))
+				{
+					return false;
+				}
+			}
+			statement.execute("SET FILES LOG FALSE"); //$NON-NLS-1$
+			return true;
+		}
+	}
+	
+	private static void enableLogging(Connection connection) throws SQLException
+	{
+		try(Statement statement = connection.createStatement())
+		{
+			statement.execute("SET FILES LOG TRUE"); //$NON-NLS-1$
+			statement.execute("CHECKPOINT"); //$NON-NLS-1$
+		}
+	}
+	
+	/**
+	 * Returns the time of the database server. If {@link HSQL2JDBCDataSource#SERVER_TIME_MAX_STALENESS} is set, the
+	 * time is computed from the local clock and the cached offset of the server clock.
+	 */
 	@Override
 	public Date getServerTime() throws DBException, ParseException
 	{
+		long maxStaleness = getDataSource().getServerTimeMaxStaleness();
+		if(maxStaleness > 0)
+		{
+			HSQL2ServerClock clock = getDataSource().getServerClock();
+			if(clock.isStale(maxStaleness))
+			{
+				try(Connection connection = getConnection())
+				{
+					clock.refresh(connection, maxStaleness);
+				}
+				catch(SQLException e)
+				{
+					throw new DBException(getDataSource(), e);
+				}
+			}
+			return clock.currentTime();
+		}
+		
 		String selectTime = "CALL current_timestamp "; //$NON-NLS-1$
 		return super.getServerTime(selectTime);
 	}
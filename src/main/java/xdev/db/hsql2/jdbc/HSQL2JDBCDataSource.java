@@ -17,15 +17,108 @@
  */
 package xdev.db.hsql2.jdbc;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+
 import xdev.db.DBException;
 import xdev.db.jdbc.JDBCDataSource;
 
 
 public class HSQL2JDBCDataSource extends JDBCDataSource<HSQL2JDBCDataSource, HSQL2Dbms>
 {
+	/**
+	 * How the database is reached, one of the names of {@link HSQL2ConnectionInformation.Mode}. In the in-process
+	 * modes <code>MEMORY</code> and <code>FILE</code> the catalog is the name respectively the path of the
+	 * database, host and port are ignored.
+	 */
+	public static final Parameter<String> CONNECTION_MODE = new Parameter<>(
+		"connectionMode",
+		HSQL2ConnectionInformation.Mode.SERVER.name());
+	
+	/**
+	 * Enables the built-in connection pool, see {@link HSQL2ConnectionPool}.
+	 */
+	public static final Parameter<Boolean> POOLING = new Parameter<>("pooling", Boolean.FALSE);
+	
+	/**
+	 * The number of pooled connections kept open while idle.
+	 */
+	public static final Parameter<Integer> POOL_MIN_SIZE = new Parameter<>("poolMinSize", 0);
+	
+	/**
+	 * The maximum number of open pooled connections.
+	 */
+	public static final Parameter<Integer> POOL_MAX_SIZE = new Parameter<>("poolMaxSize", 10);
+	
+	/**
+	 * Seconds after which an idle pooled connection is closed, <code>0</code> to keep idle connections open.
+	 */
+	public static final Parameter<Integer> POOL_IDLE_TIMEOUT = new Parameter<>("poolIdleTimeout", 300);
+	
+	/**
+	 * Seconds to wait for a free pooled connection before giving up.
+	 */
+	public static final Parameter<Integer> POOL_BORROW_TIMEOUT = new Parameter<>("poolBorrowTimeout", 30);
+	
+	/**
+	 * The number of prepared statements cached per pooled connection, <code>0</code> to disable the cache.
+	 */
+	public static final Parameter<Integer> STATEMENT_CACHE_SIZE = new Parameter<>("statementCacheSize", 64);
+	
+	/**
+	 * Milliseconds a measured offset of the server clock is used to compute the server time locally, see
+	 * {@link HSQL2ServerClock}. <code>0</code> queries the server on every call of
+	 * {@link HSQL2JDBCConnection#getServerTime()}.
+	 */
+	public static final Parameter<Integer> SERVER_TIME_MAX_STALENESS = new Parameter<>("serverTimeMaxStaleness", 0);
+	
+	/**
+	 * The maximum number of asynchronous operations running at the same time, see {@link HSQL2AsyncExecutor}.
+	 */
+	public static final Parameter<Integer> ASYNC_MAX_CONCURRENCY = new Parameter<>("asyncMaxConcurrency", 8);
+	
+	/**
+	 * The number of rows the driver fetches at once for the statements of {@link HSQL2JDBCConnection},
+	 * <code>0</code> for the driver's default.
+	 */
+	public static final Parameter<Integer> FETCH_SIZE = new Parameter<>("fetchSize", 0);
+	
+	/**
+	 * The number of result rows above which the server stores a result on disk instead of in memory, set with
+	 * <code>SET SESSION RESULT MEMORY ROWS</code> when a connection is opened. <code>0</code> for no limit.
+	 */
+	public static final Parameter<Integer> RESULT_MEMORY_ROWS = new Parameter<>("resultMemoryRows", 0);
+	
+	/**
+	 * Enables the warm-up when the adaptor is initialized, see {@link HSQL2WarmUp}.
+	 */
+	public static final Parameter<Boolean> WARM_UP = new Parameter<>("warmUp", Boolean.FALSE);
+	
+	/**
+	 * The number of connections opened by the warm-up.
+	 */
+	public static final Parameter<Integer> WARM_UP_CONNECTIONS = new Parameter<>("warmUpConnections", 1);
+	
+	/**
+	 * Comma separated names of the tables whose meta data is loaded by the warm-up, optionally qualified by their
+	 * schema.
+	 */
+	public static final Parameter<String> WARM_UP_TABLES = new Parameter<>("warmUpTables", "");
+	
+	/**
+	 * Semicolon separated statements prepared on each connection opened by the warm-up.
+	 */
+	public static final Parameter<String> WARM_UP_STATEMENTS = new Parameter<>("warmUpStatements", "");
+	
+	private final HSQL2MetaDataCache metaDataCache = new HSQL2MetaDataCache();
+	private final HSQL2ServerClock serverClock = new HSQL2ServerClock();
+	private transient HSQL2ConnectionPool connectionPool;
+	private transient HSQL2AsyncExecutor asyncExecutor;
+	
 	public HSQL2JDBCDataSource()
 	{
 		super(new HSQL2Dbms());
+		getDbmsAdaptor().setWarmUp(new HSQL2WarmUp(this));
 	}
 	
 	@Override
@@ -38,6 +131,21 @@ public class HSQL2JDBCDataSource extends JDBCDataSource<HSQL2JDBCDataSource, HSQ
 			PASSWORD.clone(),
 			CATALOG.clone(),
 			URL_EXTENSION.clone(),
+			CONNECTION_MODE.clone(),
+			POOLING.clone(),
+			POOL_MIN_SIZE.clone(),
+			POOL_MAX_SIZE.clone(),
+			POOL_IDLE_TIMEOUT.clone(),
+			POOL_BORROW_TIMEOUT.clone(),
+			STATEMENT_CACHE_SIZE.clone(),
+			SERVER_TIME_MAX_STALENESS.clone(),
+			ASYNC_MAX_CONCURRENCY.clone(),
+			FETCH_SIZE.clone(),
+			RESULT_MEMORY_ROWS.clone(),
+			WARM_UP.clone(),
+			WARM_UP_CONNECTIONS.clone(),
+			WARM_UP_TABLES.clone(),
+			WARM_UP_STATEMENTS.clone(),
 			IS_SERVER_DATASOURCE.clone(),
 			SERVER_URL.clone(),
 			AUTH_KEY.clone()
@@ -48,6 +156,7 @@ public class HSQL2JDBCDataSource extends JDBCDataSource<HSQL2JDBCDataSource, HSQ
 	protected HSQL2ConnectionInformation getConnectionInformation()
 	{
 		return new HSQL2ConnectionInformation(
+			getConnectionMode(),
 			getHost(),
 			getPort(),
 			getUserName(),
@@ -69,9 +178,181 @@ public class HSQL2JDBCDataSource extends JDBCDataSource<HSQL2JDBCDataSource, HSQ
 		return new HSQL2JDBCMetaData(this);
 	}
 	
+	public HSQL2ConnectionInformation.Mode getConnectionMode()
+	{
+		return HSQL2ConnectionInformation.Mode.parse(getParameterValue(CONNECTION_MODE));
+	}
+	
+	public boolean isPooling()
+	{
+		return Boolean.TRUE.equals(getParameterValue(POOLING));
+	}
+	
+	/**
+	 * Returns a physical connection to the database, borrowed from the connection pool if {@link #POOLING} is
+	 * enabled. The connection must be closed by the caller, which hands a pooled connection back to the pool.
+	 */
+	public Connection borrowConnection() throws DBException
+	{
+		try
+		{
+			if(!isPooling())
+			{
+				return openPhysicalConnection();
+			}
+			
+			return getConnectionPool().borrow();
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(this, e);
+		}
+	}
+	
+	/**
+	 * @return the connection pool of this data source, created on first use
+	 */
+	public synchronized HSQL2ConnectionPool getConnectionPool()
+	{
+		if(connectionPool == null)
+		{
+			connectionPool = new HSQL2ConnectionPool(
+				this::openPhysicalConnection,
+				getIntParameterValue(POOL_MIN_SIZE),
+				getIntParameterValue(POOL_MAX_SIZE),
+				getIntParameterValue(POOL_IDLE_TIMEOUT) * 1000L,
+				getIntParameterValue(POOL_BORROW_TIMEOUT) * 1000L,
+				getIntParameterValue(STATEMENT_CACHE_SIZE));
+		}
+		return connectionPool;
+	}
+	
+	/**
+	 * Closes the idle connections of the pool. The pool is recreated with the current parameters on next use.
+	 */
+	public synchronized void closeConnectionPool()
+	{
+		if(connectionPool != null)
+		{
+			connectionPool.close();
+			connectionPool = null;
+		}
+	}
+	
+	/**
+	 * @return the executor of the asynchronous operations of this data source, created on first use
+	 */
+	public synchronized HSQL2AsyncExecutor getAsyncExecutor()
+	{
+		if(asyncExecutor == null)
+		{
+			asyncExecutor = new HSQL2AsyncExecutor(
+				"HSQL2",
+				Math.max(1, getIntParameterValue(ASYNC_MAX_CONCURRENCY)));
+		}
+		return asyncExecutor;
+	}
+	
+	public long getServerTimeMaxStaleness()
+	{
+		return getIntParameterValue(SERVER_TIME_MAX_STALENESS);
+	}
+	
+	/**
+	 * @return the estimate of the server clock shared by all connections of this data source
+	 */
+	public HSQL2ServerClock getServerClock()
+	{
+		return serverClock;
+	}
+	
+	public int getFetchSize()
+	{
+		return getIntParameterValue(FETCH_SIZE);
+	}
+	
+	public int getResultMemoryRows()
+	{
+		return getIntParameterValue(RESULT_MEMORY_ROWS);
+	}
+	
+	public boolean isWarmUp()
+	{
+		return Boolean.TRUE.equals(getParameterValue(WARM_UP));
+	}
+	
+	public int getWarmUpConnections()
+	{
+		return getIntParameterValue(WARM_UP_CONNECTIONS);
+	}
+	
+	public String getWarmUpTables()
+	{
+		return getParameterValue(WARM_UP_TABLES);
+	}
+	
+	public String getWarmUpStatements()
+	{
+		return getParameterValue(WARM_UP_STATEMENTS);
+	}
+	
+	/**
+	 * Runs the warm-up now, regardless of {@link #WARM_UP}.
+	 *
+	 * @see HSQL2WarmUp
+	 */
+	public void warmUp() throws DBException
+	{
+		new HSQL2WarmUp(this).run();
+	}
+	
+	/**
+	 * Opens a new connection and applies the session settings of this data source.
+	 */
+	private Connection openPhysicalConnection() throws SQLException
+	{
+		Connection connection = getConnectionProvider().getConnection();
+		int resultMemoryRows = getResultMemoryRows();
+		if(resultMemoryRows > 0)
+		{
+			try
+			{
+				HSQL2SessionConnection.setResultMemoryRows(connection, resultMemoryRows);
+			}
+			catch(SQLException e)
+			{
+				connection.close();
+				throw e;
+			}
+		}
+		return connection;
+	}
+	
+	private int getIntParameterValue(Parameter<Integer> parameter)
+	{
+		Integer value = getParameterValue(parameter);
+		return value != null ? value : parameter.getDefaultValue();
+	}
+	
+	/**
+	 * @return the cache shared by all {@link HSQL2JDBCMetaData} instances of this data source
+	 */
+	public HSQL2MetaDataCache getMetaDataCache()
+	{
+		return metaDataCache;
+	}
+	
 	@Override
 	public boolean canExport()
 	{
 		return true;
 	}
+	
+	/**
+	 * @return a new exporter, which streams query results of this data source as CSV or binary data
+	 */
+	public HSQL2Exporter createExporter()
+	{
+		return new HSQL2Exporter(this);
+	}
 }
@@ -19,24 +19,34 @@ package xdev.db.hsql2.jdbc;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-import org.hsqldb.jdbc.JDBCStatement;
-
-import com.xdev.jadoth.sqlengine.interfaces.ConnectionProvider;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import xdev.db.ColumnMetaData;
 import xdev.db.DBException;
@@ -50,9 +60,6 @@ import xdev.db.StoredProcedure.ParamType;
 import xdev.db.StoredProcedure.ReturnTypeFlavor;
 import xdev.db.jdbc.JDBCConnection;
 import xdev.db.jdbc.JDBCMetaData;
-import xdev.db.sql.Functions;
-import xdev.db.sql.SELECT;
-import xdev.db.sql.Table;
 import xdev.util.ProgressMonitor;
 import xdev.vt.Cardinality;
 import xdev.vt.EntityRelationship;
@@ -67,14 +74,45 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 	private final DateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
 	private final DateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 	
+	/**
+	 * Flag for {@link #getTableMetaData(ProgressMonitor, int, TableInfo...)}: reads the row count from HSQLDB's
+	 * table statistics (INFORMATION_SCHEMA.SYSTEM_TABLESTATS) instead of counting the rows of each table. If
+	 * {@link #ROW_COUNT} is set as well, the rows are counted exactly. Views have no statistics, their row count
+	 * stays unknown.
+	 *
+	 * @see HSQL2TableMetaData#isRowCountEstimated()
+	 */
+	public static final int ESTIMATED_ROW_COUNT = 1 << 16;
+	
+	/**
+	 * Maximum number of tables whose meta data is loaded with one set of bulk queries.
+	 */
+	private static final int BULK_CHUNK_SIZE = 500;
+	
+	private static final int TABLE_INFO_FETCH_SIZE = 100;
+	
+	private boolean bulkLoading = true;
+	private int parallelism = 1;
+	private String[] procedureSchemas = {"PUBLIC"};
+	
+	private final transient HSQL2MetaDataCache cache;
+	private final transient HSQL2RetrospectionAccessor retrospectionAccessor;
+	
 	public HSQL2JDBCMetaData(HSQL2JDBCDataSource dataSource) throws DBException
 	{
 		super(dataSource);
+		cache = dataSource.getMetaDataCache();
+		retrospectionAccessor = dataSource.getDbmsAdaptor().getRetrospectionAccessor();
+	}
+	
+	private Connection borrowConnection() throws DBException
+	{
+		return ((HSQL2JDBCDataSource)dataSource).borrowConnection();
 	}
 	
 	private static void addMetaDataToColumns(
 		TableInfo table,
-		Map<String, Boolean> autoIncrementMap,
+		boolean autoIncrement,
 		Result result,
 		List<ColumnMetaData> columns) throws DBException
 	{
@@ -95,7 +133,7 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 			result.getInt("DECIMAL_DIGITS"),                // scale
 			defaultValue,                                           // defaultValue
 			"YES".equals(result.getString("IS_NULLABLE")),  // nullable
-			Boolean.TRUE.equals(autoIncrementMap.get(columnName))   // autoIncrement
+			autoIncrement                                           // autoIncrement
 		));
 	}
 	
@@ -182,46 +220,356 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 	@Override
 	public TableInfo[] getTableInfos(ProgressMonitor monitor, EnumSet<TableType> types) throws DBException
 	{
-		monitor.beginTask("", ProgressMonitor.UNKNOWN);
+		validateCacheIfDue();
+		
+		TableInfo[] cached = cache.getTableInfos(types);
+		if(cached != null)
+		{
+			return cached;
+		}
 		
 		List<TableInfo> list = new ArrayList<>();
+		getTableInfos(monitor, types, null, null, list::add);
 		
-		try(JDBCConnection jdbcConnection = (JDBCConnection)dataSource.openConnection())
+		TableInfo[] tables = list.toArray(new TableInfo[list.size()]);
+		Arrays.sort(tables);
+		
+		if(!monitor.isCanceled())
 		{
-			String tableTypeStatement = getTableTypeStatement(types);
-			Result result = jdbcConnection.query("SELECT TABLE_SCHEM, TABLE_NAME, TABLE_TYPE "
-				+ "FROM INFORMATION_SCHEMA.SYSTEM_TABLES " + "WHERE TABLE_TYPE in "
-				+ tableTypeStatement);
+			cache.putTableInfos(types, tables);
+		}
+		
+		return tables;
+	}
+	
+	/**
+	 * Streams the tables and views matching the given patterns to <code>consumer</code>, ordered by schema and
+	 * name. The filters and the ordering are evaluated by the server and the rows are read with a forward only
+	 * cursor, so the first tables are handed out immediately and the memory used does not depend on the number of
+	 * tables in the database.
+	 *
+	 * @param schemaPattern    LIKE pattern for the schema name, <code>null</code> for all schemas
+	 * @param tableNamePattern LIKE pattern for the table name, <code>null</code> for all tables
+	 * @param consumer         receives the tables one by one on the calling thread
+	 */
+	public void getTableInfos(
+		ProgressMonitor monitor, EnumSet<TableType> types, String schemaPattern,
+		String tableNamePattern, Consumer<? super TableInfo> consumer) throws DBException
+	{
+		monitor.beginTask("", ProgressMonitor.UNKNOWN);
+		
+		if(types == null || types.isEmpty())
+		{
+			monitor.done();
+			return;
+		}
+		
+		List<String> params = new ArrayList<>();
+		StringBuilder sql = new StringBuilder("SELECT TABLE_SCHEM, TABLE_NAME, TABLE_TYPE "
+			+ "FROM INFORMATION_SCHEMA.SYSTEM_TABLES WHERE TABLE_TYPE IN ");
+		sql.append(getTableTypeStatement(types));
+		if(schemaPattern != null)
+		{
+			sql.append(" AND TABLE_SCHEM LIKE ?");
+			params.add(schemaPattern);
+		}
+		if(tableNamePattern != null)
+		{
+			sql.append(" AND TABLE_NAME LIKE ?");
+			params.add(tableNamePattern);
+		}
+		sql.append(" ORDER BY TABLE_SCHEM, TABLE_NAME");
+		
+		try(Connection connection = borrowConnection();
+			PreparedStatement statement = connection.prepareStatement(
+				sql.toString(),
+				ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY))
+		{
+			statement.setFetchSize(TABLE_INFO_FETCH_SIZE);
+			for(int i = 0; i < params.size(); i++)
+			{
+				statement.setString(i + 1, params.get(i));
+			}
 			
-			while(result.next() && !monitor.isCanceled())
+			try(ResultSet rs = statement.executeQuery())
 			{
-				String tableType = result.getString("TABLE_TYPE");
+				while(rs.next() && !monitor.isCanceled())
+				{
+					String tableType = rs.getString("TABLE_TYPE");
+					
+					TableType type = null;
+					if(tableType.equals("TABLE"))
+					{
+						type = TableType.TABLE;
+					}
+					else if(tableType.equals("VIEW"))
+					{
+						type = TableType.VIEW;
+					}
+					
+					if(type != null && types.contains(type))
+					{
+						consumer.accept(new TableInfo(type, rs.getString("TABLE_SCHEM"), rs.getString("TABLE_NAME")));
+					}
+				}
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(dataSource, e);
+		}
+		
+		monitor.done();
+	}
+	
+	/**
+	 * Returns the meta data of the given tables. Entries found in the data source's {@link HSQL2MetaDataCache} are
+	 * served from memory, only the remaining tables are loaded from the database. Requests for {@link #ROW_COUNT} or
+	 * {@link #ESTIMATED_ROW_COUNT} bypass the cache, since row counts change with every insert or delete.
+	 */
+	@Override
+	public TableMetaData[] getTableMetaData(ProgressMonitor monitor, int flags, TableInfo... tables)
+		throws DBException
+	{
+		if((flags & (ROW_COUNT | ESTIMATED_ROW_COUNT)) != 0)
+		{
+			return loadTableMetaData(monitor, flags, tables);
+		}
+		
+		validateCacheIfDue();
+		
+		TableMetaData[] metaData = new TableMetaData[tables.length];
+		List<TableInfo> missing = new ArrayList<>();
+		for(int i = 0; i < tables.length; i++)
+		{
+			metaData[i] = cache.getTableMetaData(tables[i], flags);
+			if(metaData[i] == null)
+			{
+				missing.add(tables[i]);
+			}
+		}
+		
+		if(missing.isEmpty())
+		{
+			return metaData;
+		}
+		
+		TableMetaData[] loaded = loadTableMetaData(monitor, flags, missing.toArray(new TableInfo[missing.size()]));
+		Map<TableInfo, TableMetaData> loadedMap = new HashMap<>();
+		for(TableMetaData tableMetaData : loaded)
+		{
+			loadedMap.put(tableMetaData.getTableInfo(), tableMetaData);
+			cache.putTableMetaData(tableMetaData.getTableInfo(), flags, tableMetaData);
+		}
+		
+		List<TableMetaData> list = new ArrayList<>(tables.length);
+		for(int i = 0; i < tables.length; i++)
+		{
+			TableMetaData tableMetaData = metaData[i] != null ? metaData[i] : loadedMap.get(tables[i]);
+			if(tableMetaData != null)
+			{
+				list.add(tableMetaData);
+			}
+		}
+		return list.toArray(new TableMetaData[list.size()]);
+	}
+	
+	/**
+	 * Loads the meta data of the given tables. If bulk loading is enabled (the default), the columns, primary keys
+	 * and indices of up to {@value #BULK_CHUNK_SIZE} tables are read with one query each and the
+	 * {@link TableMetaData} objects are assembled on the client, instead of issuing several queries per table.
+	 *
+	 * @see #setBulkLoading(boolean)
+	 */
+	private TableMetaData[] loadTableMetaData(ProgressMonitor monitor, int flags, TableInfo... tables)
+		throws DBException
+	{
+		if(parallelism > 1 && tables.length > 1)
+		{
+			return loadTableMetaDataParallel(monitor, flags, tables);
+		}
+		
+		if(!bulkLoading || tables.length < 2)
+		{
+			return super.getTableMetaData(monitor, flags, tables);
+		}
+		
+		monitor.beginTask("", tables.length);
+		
+		List<TableMetaData> list = new ArrayList<>(tables.length);
+		
+		try(JDBCConnection jdbcConnection = (JDBCConnection)dataSource.openConnection())
+		{
+			int done = 0;
+			for(int start = 0; start < tables.length && !monitor.isCanceled(); start += BULK_CHUNK_SIZE)
+			{
+				TableInfo[] chunk = Arrays.copyOfRange(
+					tables,
+					start,
+					Math.min(tables.length, start + BULK_CHUNK_SIZE));
+				list.addAll(getTableMetaDataBulk(jdbcConnection, flags, chunk));
 				
-				TableType type = null;
-				if(tableType.equals("TABLE"))
+				done += chunk.length;
+				monitor.worked(done);
+			}
+		}
+		
+		monitor.done();
+		
+		return list.toArray(new TableMetaData[list.size()]);
+	}
+	
+	/**
+	 * Distributes the tables in chunks over {@link #getParallelism()} worker threads, each of them using its own
+	 * connection of the data source. Progress is reported and cancellation is checked by the calling thread.
+	 */
+	private TableMetaData[] loadTableMetaDataParallel(
+		ProgressMonitor monitor, final int flags,
+		TableInfo[] tables) throws DBException
+	{
+		int chunkSize = 1;
+		if(bulkLoading)
+		{
+			chunkSize = Math.max(1, Math.min(BULK_CHUNK_SIZE, (tables.length + parallelism - 1) / parallelism));
+		}
+		
+		final List<TableInfo[]> chunks = new ArrayList<>();
+		for(int start = 0; start < tables.length; start += chunkSize)
+		{
+			chunks.add(Arrays.copyOfRange(tables, start, Math.min(tables.length, start + chunkSize)));
+		}
+		
+		final AtomicInteger nextChunk = new AtomicInteger();
+		final AtomicBoolean canceled = new AtomicBoolean();
+		final BlockingQueue<ChunkResult> results = new LinkedBlockingQueue<>();
+		int threads = Math.min(parallelism, chunks.size());
+		final AtomicInteger runningWorkers = new AtomicInteger(threads);
+		
+		monitor.beginTask("", tables.length);
+		
+		@SuppressWarnings("unchecked")
+		List<TableMetaData>[] loaded = new List[chunks.size()];
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "HSQL2 meta data loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try
+		{
+			for(int i = 0; i < threads; i++)
+			{
+				executor.execute(() -> {
+					try
+					{
+						loadChunks(flags, chunks, nextChunk, canceled, results);
+					}
+					finally
+					{
+						runningWorkers.decrementAndGet();
+					}
+				});
+			}
+			
+			int received = 0;
+			int done = 0;
+			while(received < chunks.size())
+			{
+				if(monitor.isCanceled())
 				{
-					type = TableType.TABLE;
+					canceled.set(true);
+					break;
 				}
-				else if(tableType.equals("VIEW"))
+				
+				ChunkResult result = results.poll(100, TimeUnit.MILLISECONDS);
+				if(result == null)
 				{
-					type = TableType.VIEW;
+					if(runningWorkers.get() == 0 && results.isEmpty())
+					{
+						throw new DBException(dataSource, "Meta data loaders terminated with "
+							+ (chunks.size() - received) + " chunks left");
+					}
+					continue;
 				}
 				
-				if(type != null && types.contains(type))
+				if(result.exception != null)
 				{
-					list.add(new TableInfo(type, result.getString("TABLE_SCHEM"), result
-						.getString("TABLE_NAME")));
+					canceled.set(true);
+					if(result.exception instanceof DBException)
+					{
+						throw (DBException)result.exception;
+					}
+					if(result.exception instanceof Error)
+					{
+						throw (Error)result.exception;
+					}
+					throw new DBException(dataSource, result.exception);
 				}
+				
+				loaded[result.index] = result.metaData;
+				received++;
+				done += chunks.get(result.index).length;
+				monitor.worked(done);
 			}
-			
-			result.close();
+		}
+		catch(InterruptedException e)
+		{
+			canceled.set(true);
+			Thread.currentThread().interrupt();
+			throw new DBException(dataSource, e);
+		}
+		finally
+		{
+			executor.shutdown();
 		}
 		
 		monitor.done();
 		
-		TableInfo[] tables = list.toArray(new TableInfo[list.size()]);
-		Arrays.sort(tables);
-		return tables;
+		List<TableMetaData> list = new ArrayList<>(tables.length);
+		for(List<TableMetaData> chunkMetaData : loaded)
+		{
+			if(chunkMetaData != null)
+			{
+				list.addAll(chunkMetaData);
+			}
+		}
+		return list.toArray(new TableMetaData[list.size()]);
+	}
+	
+	/**
+	 * Worker loop of {@link #loadTableMetaDataParallel(ProgressMonitor, int, TableInfo[])}.
+	 */
+	private void loadChunks(
+		int flags, List<TableInfo[]> chunks, AtomicInteger nextChunk,
+		AtomicBoolean canceled, BlockingQueue<ChunkResult> results)
+	{
+		try(JDBCConnection jdbcConnection = (JDBCConnection)dataSource.openConnection())
+		{
+			int index;
+			while(!canceled.get() && (index = nextChunk.getAndIncrement()) < chunks.size())
+			{
+				TableInfo[] chunk = chunks.get(index);
+				List<TableMetaData> list;
+				if(bulkLoading)
+				{
+					list = getTableMetaDataBulk(jdbcConnection, flags, chunk);
+				}
+				else
+				{
+					list = new ArrayList<>(chunk.length);
+					for(TableInfo table : chunk)
+					{
+						list.add(getSingleTableMetaData(jdbcConnection, flags, table));
+					}
+				}
+				results.add(new ChunkResult(index, list, null));
+			}
+		}
+		catch(Throwable t)
+		{
+			results.add(new ChunkResult(-1, null, t));
+		}
 	}
 	
 	@Override
@@ -229,123 +577,539 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 		JDBCConnection jdbcConnection, DatabaseMetaData meta,
 		int flags, TableInfo table) throws DBException, SQLException
 	{
-		String tableName = table.getName();
-		Table tableIdentity = new Table(tableName);
-		Map<String, Boolean> autoIncrementMap = new HashMap<>();
-		SELECT select = new SELECT().FROM(tableIdentity).WHERE("1 = 0");
-		Result result = jdbcConnection.query(select);
-		int cc = result.getColumnCount();
+		return getSingleTableMetaData(jdbcConnection, flags, table);
+	}
+	
+	/**
+	 * Loads the meta data of a single table. The auto increment flags are read from the IS_AUTOINCREMENT column of
+	 * SYSTEM_COLUMNS together with the other column information, the table itself is only queried to count its
+	 * rows.
+	 */
+	private TableMetaData getSingleTableMetaData(JDBCConnection jdbcConnection, int flags, TableInfo table)
+		throws DBException
+	{
+		TableMetaDataBuilder builder = new TableMetaDataBuilder(table);
+		
+		Result result = queryTableView(jdbcConnection, "SYSTEM_COLUMNS", table, " ORDER BY ORDINAL_POSITION");
 		
-		for(int i = 0; i < cc; i++)
+		while(result.next())
 		{
-			ColumnMetaData cm = result.getMetadata(i);
-			autoIncrementMap.put(cm.getName(), cm.isAutoIncrement());
+			builder.addColumn(result, isAutoIncrement(result));
 		}
 		result.close();
 		
-		result = jdbcConnection.query("SELECT * FROM INFORMATION_SCHEMA.SYSTEM_COLUMNS "
-			+ "WHERE TABLE_NAME = ?", table.getName());
+		if((flags & INDICES) != 0)
+		{
+			result = queryTableView(jdbcConnection, "SYSTEM_PRIMARYKEYS", table, "");
+			
+			while(result.next())
+			{
+				builder.addPrimaryKeyColumn(result);
+			}
+			result.close();
+			
+			result = queryTableView(jdbcConnection, "SYSTEM_INDEXINFO", table, "");
+			
+			while(result.next())
+			{
+				builder.addIndexColumn(result);
+			}
+			result.close();
+		}
+		
+		if((flags & ROW_COUNT) != 0)
+		{
+			StringBuilder sb = new StringBuilder("SELECT COUNT(*) FROM ");
+			appendQualifiedName(table, sb);
+			
+			result = jdbcConnection.query(sb.toString());
+			if(result.next())
+			{
+				builder.count = result.getInt(0);
+			}
+			result.close();
+		}
+		else if((flags & ESTIMATED_ROW_COUNT) != 0)
+		{
+			loadRowCountEstimates(
+				jdbcConnection,
+				Collections.singletonMap(getTableKey(table.getSchema(), table.getName()), builder));
+		}
+		
+		return builder.build(flags);
+	}
+	
+	/**
+	 * Queries the rows of the given INFORMATION_SCHEMA view which belong to <code>table</code>. The names are
+	 * passed as parameters, so quoted and mixed case names need no escaping.
+	 */
+	private Result queryTableView(JDBCConnection jdbcConnection, String view, TableInfo table, String orderBy)
+		throws DBException
+	{
+		String sql = "SELECT * FROM INFORMATION_SCHEMA." + view + " WHERE TABLE_NAME = ?";
+		if(table.getSchema() == null)
+		{
+			return jdbcConnection.query(sql + orderBy, table.getName());
+		}
+		return jdbcConnection.query(sql + " AND TABLE_SCHEM = ?" + orderBy, table.getName(), table.getSchema());
+	}
+	
+	/**
+	 * HSQLDB reports identity columns of tables in SYSTEM_COLUMNS.IS_AUTOINCREMENT. Columns of views are never
+	 * reported as auto increment, the same as in the result set meta data of a query on the view.
+	 */
+	private static boolean isAutoIncrement(Result result) throws DBException
+	{
+		return "YES".equals(result.getString("IS_AUTOINCREMENT"));
+	}
+	
+	/**
+	 * Loads the meta data of all given tables with one query per information schema view. The table names are
+	 * passed as one IN list, the rows are assigned to their tables on the client.
+	 */
+	private List<TableMetaData> getTableMetaDataBulk(
+		JDBCConnection jdbcConnection, int flags,
+		TableInfo[] tables) throws DBException
+	{
+		Map<String, TableMetaDataBuilder> builders = new LinkedHashMap<>();
+		Object[] tableNames = new Object[tables.length];
+		for(int i = 0; i < tables.length; i++)
+		{
+			builders.put(getTableKey(tables[i].getSchema(), tables[i].getName()), new TableMetaDataBuilder(tables[i]));
+			tableNames[i] = tables[i].getName();
+		}
+		String tableNameList = createParameterList(tables.length);
+		
+		Result result = jdbcConnection.query("SELECT * FROM INFORMATION_SCHEMA.SYSTEM_COLUMNS "
+			+ "WHERE TABLE_NAME IN " + tableNameList + " ORDER BY TABLE_SCHEM, TABLE_NAME, ORDINAL_POSITION", tableNames);
 		
-		List<ColumnMetaData> columns = new ArrayList<>();
 		while(result.next())
 		{
-			addMetaDataToColumns(table, autoIncrementMap, result, columns);
+			TableMetaDataBuilder builder = getBuilder(builders, result);
+			if(builder != null)
+			{
+				builder.addColumn(result, isAutoIncrement(result));
+			}
 		}
 		result.close();
 		
-		Map<IndexInfo, Set<String>> indexMap = new HashMap<>();
-		Set<String> primaryKeyColumns = new HashSet<>();
-		String primaryKeyName = "PRIMARY_KEY";
+		if((flags & INDICES) != 0)
+		{
+			result = jdbcConnection.query("SELECT * FROM INFORMATION_SCHEMA.SYSTEM_PRIMARYKEYS "
+				+ "WHERE TABLE_NAME IN " + tableNameList, tableNames);
+			
+			while(result.next())
+			{
+				TableMetaDataBuilder builder = getBuilder(builders, result);
+				if(builder != null)
+				{
+					builder.addPrimaryKeyColumn(result);
+				}
+			}
+			result.close();
+			
+			result = jdbcConnection.query("SELECT * FROM INFORMATION_SCHEMA.SYSTEM_INDEXINFO "
+				+ "WHERE TABLE_NAME IN " + tableNameList, tableNames);
+			
+			while(result.next())
+			{
+				TableMetaDataBuilder builder = getBuilder(builders, result);
+				if(builder != null)
+				{
+					builder.addIndexColumn(result);
+				}
+			}
+			result.close();
+		}
+		
+		if((flags & ROW_COUNT) != 0)
+		{
+			loadRowCounts(jdbcConnection, builders.values());
+		}
+		else if((flags & ESTIMATED_ROW_COUNT) != 0)
+		{
+			loadRowCountEstimates(jdbcConnection, builders);
+		}
+		
+		List<TableMetaData> list = new ArrayList<>(builders.size());
+		for(TableMetaDataBuilder builder : builders.values())
+		{
+			list.add(builder.build(flags));
+		}
+		return list;
+	}
+	
+	/**
+	 * Counts the rows of all given tables with a single UNION ALL statement.
+	 */
+	private void loadRowCounts(JDBCConnection jdbcConnection, Collection<TableMetaDataBuilder> builders)
+		throws DBException
+	{
+		TableMetaDataBuilder[] array = builders.toArray(new TableMetaDataBuilder[builders.size()]);
+		
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < array.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(" UNION ALL ");
+			}
+			sb.append("SELECT ");
+			sb.append(i);
+			sb.append(", COUNT(*) FROM ");
+			appendQualifiedName(array[i].table, sb);
+		}
+		
+		Result result = jdbcConnection.query(sb.toString());
+		while(result.next())
+		{
+			array[result.getInt(0)].count = result.getInt(1);
+		}
+		result.close();
+	}
+	
+	/**
+	 * Reads the cardinality HSQLDB keeps for each table. This does not touch the table data.
+	 */
+	private void loadRowCountEstimates(JDBCConnection jdbcConnection, Map<String, TableMetaDataBuilder> builders)
+		throws DBException
+	{
+		Object[] tableNames = new Object[builders.size()];
+		int i = 0;
+		for(TableMetaDataBuilder builder : builders.values())
+		{
+			tableNames[i++] = builder.table.getName();
+		}
 		
-		result = jdbcConnection.query("SELECT * FROM INFORMATION_SCHEMA.SYSTEM_PRIMARYKEYS "
-			+ "WHERE TABLE_NAME = ?", table.getName());
+		Result result = jdbcConnection.query("SELECT TABLE_SCHEMA, TABLE_NAME, CARDINALITY "
+			+ "FROM INFORMATION_SCHEMA.SYSTEM_TABLESTATS "
+			+ "WHERE TABLE_NAME IN " + createParameterList(tableNames.length), tableNames);
 		
 		while(result.next())
 		{
-			primaryKeyColumns.add(result.getString("COLUMN_NAME"));
-			primaryKeyName = result.getString("PK_NAME");
+			TableMetaDataBuilder builder = getBuilder(
+				builders,
+				result.getString("TABLE_SCHEMA"),
+				result.getString("TABLE_NAME"));
+			Object cardinality = result.getObject("CARDINALITY");
+			if(builder != null && cardinality instanceof Number)
+			{
+				builder.count = (int)Math.min(Integer.MAX_VALUE, ((Number)cardinality).longValue());
+				builder.rowCountEstimated = true;
+			}
+		}
+		result.close();
+	}
+	
+	private TableMetaDataBuilder getBuilder(Map<String, TableMetaDataBuilder> builders, Result result)
+		throws DBException
+	{
+		return getBuilder(builders, result.getString("TABLE_SCHEM"), result.getString("TABLE_NAME"));
+	}
+	
+	private TableMetaDataBuilder getBuilder(
+		Map<String, TableMetaDataBuilder> builders, String schema,
+		String tableName)
+	{
+		TableMetaDataBuilder builder = builders.get(getTableKey(schema, tableName));
+		if(builder == null)
+		{
+			builder = builders.get(getTableKey(null, tableName));
+		}
+		return builder;
+	}
+	
+	private static String getTableKey(String schema, String name)
+	{
+		return schema == null ? name : schema + "." + name;
+	}
+	
+	private static String createParameterList(int count)
+	{
+		StringBuilder sb = new StringBuilder(count * 2 + 1);
+		sb.append('(');
+		for(int i = 0; i < count; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(',');
+			}
+			sb.append('?');
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+	
+	private void appendQualifiedName(TableInfo table, StringBuilder sb)
+	{
+		if(table.getSchema() != null)
+		{
+			appendEscapedName(table.getSchema(), sb);
+			sb.append('.');
+		}
+		appendEscapedName(table.getName(), sb);
+	}
+	
+	/**
+	 * @param bulkLoading <code>true</code> to load the meta data of multiple tables with set based queries,
+	 *                    <code>false</code> to load them table by table
+	 */
+	public void setBulkLoading(boolean bulkLoading)
+	{
+		this.bulkLoading = bulkLoading;
+	}
+	
+	public boolean isBulkLoading()
+	{
+		return bulkLoading;
+	}
+	
+	/**
+	 * @param parallelism the maximum number of connections used to load the meta data of multiple tables
+	 *                    concurrently, <code>1</code> to load them on the calling thread
+	 */
+	public void setParallelism(int parallelism)
+	{
+		this.parallelism = Math.max(1, parallelism);
+	}
+	
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+	
+	/**
+	 * Runs {@link #getTableInfos(ProgressMonitor, EnumSet)} on a worker of the data source's
+	 * {@link HSQL2AsyncExecutor}.
+	 */
+	public CompletableFuture<TableInfo[]> getTableInfosAsync(ProgressMonitor monitor, EnumSet<TableType> types)
+	{
+		return getAsyncExecutor().submit(() -> getTableInfos(monitor, types));
+	}
+	
+	/**
+	 * Runs {@link #getTableMetaData(ProgressMonitor, int, TableInfo...)} on a worker of the data source's
+	 * {@link HSQL2AsyncExecutor}.
+	 */
+	public CompletableFuture<TableMetaData[]> getTableMetaDataAsync(
+		ProgressMonitor monitor, int flags,
+		TableInfo... tables)
+	{
+		return getAsyncExecutor().submit(() -> getTableMetaData(monitor, flags, tables));
+	}
+	
+	/**
+	 * Runs {@link #getStoredProcedures(ProgressMonitor)} on a worker of the data source's
+	 * {@link HSQL2AsyncExecutor}.
+	 */
+	public CompletableFuture<StoredProcedure[]> getStoredProceduresAsync(ProgressMonitor monitor)
+	{
+		return getAsyncExecutor().submit(() -> getStoredProcedures(monitor));
+	}
+	
+	/**
+	 * Runs {@link #getEntityRelationshipModel(ProgressMonitor, TableInfo...)} on a worker of the data source's
+	 * {@link HSQL2AsyncExecutor}.
+	 */
+	public CompletableFuture<EntityRelationshipModel> getEntityRelationshipModelAsync(
+		ProgressMonitor monitor,
+		TableInfo... tableInfos)
+	{
+		return getAsyncExecutor().submit(() -> getEntityRelationshipModel(monitor, tableInfos));
+	}
+	
+	private HSQL2AsyncExecutor getAsyncExecutor()
+	{
+		return ((HSQL2JDBCDataSource)dataSource).getAsyncExecutor();
+	}
+	
+	/**
+	 * Checks if the schema has been changed by another client and drops the cached meta data, indices and
+	 * statistics in that case.
+	 *
+	 * @return <code>true</code> if a change has been detected
+	 * @see HSQL2MetaDataCache#validate(Connection)
+	 */
+	public boolean checkForSchemaChanges() throws DBException
+	{
+		try(Connection connection = borrowConnection())
+		{
+			boolean changed = cache.validate(connection);
+			if(changed)
+			{
+				retrospectionAccessor.clearCache();
+			}
+			return changed;
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(dataSource, e);
+		}
+	}
+	
+	/**
+	 * Drops the cached meta data and retrospection results of a table after DDL has been run on it.
+	 */
+	private void invalidate(TableInfo table)
+	{
+		cache.invalidate(table);
+		retrospectionAccessor.invalidate(table.getSchema(), table.getName());
+	}
+	
+	/**
+	 * @return a new, empty migration plan which applies its operations to this meta data's data source
+	 */
+	public HSQL2MigrationPlan createMigrationPlan()
+	{
+		return new HSQL2MigrationPlan(this);
+	}
+	
+	/**
+	 * Runs the statements of a migration plan as one JDBC batch and invalidates the cached meta data of the affected
+	 * tables afterwards, also if the batch fails. The batch is not atomic: HSQLDB commits every DDL statement
+	 * implicitly, so the statements executed before a failing one stay in effect.
+	 */
+	void executeMigration(List<String> statements, Collection<TableInfo> tables) throws DBException
+	{
+		if(statements.isEmpty())
+		{
+			return;
+		}
+		
+		try(Connection connection = borrowConnection())
+		{
+			try(Statement statement = connection.createStatement())
+			{
+				for(String sql : statements)
+				{
+					statement.addBatch(sql);
+				}
+				statement.executeBatch();
+			}
+			finally
+			{
+				for(TableInfo table : tables)
+				{
+					invalidate(table);
+				}
+				cache.invalidateTableInfos();
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(dataSource, e);
+		}
+	}
+	
+	private void validateCacheIfDue() throws DBException
+	{
+		if(cache.isEnabled() && cache.isValidationDue())
+		{
+			checkForSchemaChanges();
+		}
+	}
+	
+	@Override
+	public StoredProcedure[] getStoredProcedures(ProgressMonitor monitor) throws DBException
+	{
+		return getStoredProcedures(monitor, procedureSchemas);
+	}
+	
+	/**
+	 * Returns the stored procedures and functions of the given schemas. The procedures and all of their parameters
+	 * are read with one query each, the parameters are assigned to their procedures on the client.
+	 */
+	public StoredProcedure[] getStoredProcedures(ProgressMonitor monitor, String... schemas) throws DBException
+	{
+		monitor.beginTask("", ProgressMonitor.UNKNOWN);
+		
+		List<StoredProcedure> list = new ArrayList<>();
+		
+		if(schemas.length > 0)
+		{
+			try
+			{
+				try(Connection connection = borrowConnection())
+				{
+					Map<String, List<ProcedureColumn>> columnsMap = getProcedureColumns(connection, schemas);
+					
+					list = getProcedures(connection, schemas, columnsMap, monitor);
+				}
+			}
+			catch(SQLException e)
+			{
+				throw new DBException(dataSource, e);
+			}
+		}
+		
+		monitor.done();
+		
+		return list.toArray(new StoredProcedure[list.size()]);
+	}
+	
+	/**
+	 * @param procedureSchemas the schemas searched by {@link #getStoredProcedures(ProgressMonitor)}, PUBLIC by
+	 *                         default
+	 */
+	public void setProcedureSchemas(String... procedureSchemas)
+	{
+		this.procedureSchemas = procedureSchemas.clone();
+	}
+	
+	public String[] getProcedureSchemas()
+	{
+		return procedureSchemas.clone();
+	}
+	
+	private String convDataTypeString(String dataType)
+	{
+		if(dataType.equalsIgnoreCase("character"))
+		{
+			dataType = "CHAR";
+		}
+		else if(dataType.equalsIgnoreCase("bit"))
+		{
+			dataType = "BOOLEAN";
 		}
-		result.close();
-		
-		if((flags & INDICES) != 0)
+		else if(dataType.equalsIgnoreCase("other"))
 		{
-			if(!primaryKeyColumns.isEmpty())
-			{
-				indexMap.put(new IndexInfo(primaryKeyName, IndexType.PRIMARY_KEY), primaryKeyColumns);
-			}
-			
-			result = jdbcConnection.query("SELECT * FROM INFORMATION_SCHEMA.SYSTEM_INDEXINFO "
-				+ "WHERE TABLE_NAME = ?", table.getName());
-			
-			while(result.next())
-			{
-				String indexName = result.getString("INDEX_NAME");
-				String columnName = result.getString("COLUMN_NAME");
-				if(indexName != null
-					&& columnName != null
-					&& !primaryKeyColumns.contains(columnName))
-				{
-					boolean unique = !result.getBoolean("NON_UNIQUE");
-					IndexInfo info = new IndexInfo(indexName, unique ? IndexType.UNIQUE : IndexType.NORMAL);
-					Set<String> columnNames = indexMap.get(info);
-					if(columnNames == null)
-					{
-						columnNames = new HashSet<>();
-						indexMap.put(info, columnNames);
-					}
-					columnNames.add(columnName);
-				}
-			}
-			result.close();
+			dataType = "OBJECT";
 		}
-		
-		Index[] indices = new Index[indexMap.size()];
-		int i = 0;
-		for(IndexInfo indexInfo : indexMap.keySet())
+		else if(dataType.equalsIgnoreCase("datetime"))
 		{
-			Set<String> columnList = indexMap.get(indexInfo);
-			String[] indexColumns = columnList.toArray(new String[columnList.size()]);
-			indices[i++] = new Index(indexInfo.name, indexInfo.type, indexColumns);
+			dataType = "TIMESTAMP";
 		}
-		
-		int count = UNKNOWN_ROW_COUNT;
-		
-		if((flags & ROW_COUNT) != 0)
+		else if(dataType.equalsIgnoreCase("int"))
 		{
-			result = jdbcConnection.query(new SELECT().columns(Functions.COUNT()).FROM(
-				tableIdentity));
-			if(result.next())
-			{
-				count = result.getInt(0);
-			}
-			result.close();
+			dataType = "INTEGER";
 		}
-		
-		return new TableMetaData(
-			table,
-			columns.toArray(new ColumnMetaData[columns.size()]),
-			indices,
-			count
-		);
+		return dataType;
 	}
 	
-	@Override
-	public StoredProcedure[] getStoredProcedures(ProgressMonitor monitor) throws DBException
+	/**
+	 * Reads the procedures of the given schemas and assigns the parameters of <code>columnsMap</code> to them.
+	 */
+	private List<StoredProcedure> getProcedures(
+		Connection connection, String[] schemas,
+		Map<String, List<ProcedureColumn>> columnsMap, ProgressMonitor monitor) throws SQLException
 	{
-		monitor.beginTask("", ProgressMonitor.UNKNOWN);
+		String sql = "SELECT P.PROCEDURE_SCHEM, P.PROCEDURE_NAME, P.SPECIFIC_NAME, P.REMARKS, R.DATA_TYPE, "
+			+ "P.PROCEDURE_TYPE FROM INFORMATION_SCHEMA.SYSTEM_PROCEDURES P "
+			+ "JOIN INFORMATION_SCHEMA.ROUTINES R ON P.SPECIFIC_NAME = R.SPECIFIC_NAME "
+			+ "AND P.PROCEDURE_SCHEM = R.SPECIFIC_SCHEMA WHERE P.PROCEDURE_SCHEM IN "
+			+ createParameterList(schemas.length) + " ORDER BY P.PROCEDURE_SCHEM, P.PROCEDURE_NAME";
 		
 		List<StoredProcedure> list = new ArrayList<>();
 		
-		try
+		try(PreparedStatement statement = connection.prepareStatement(sql))
 		{
-			ConnectionProvider<?> connectionProvider = dataSource.getConnectionProvider();
+			for(int i = 0; i < schemas.length; i++)
+			{
+				statement.setString(i + 1, schemas[i]);
+			}
 			
-			try(Connection connection = connectionProvider.getConnection())
+			try(ResultSet rs = statement.executeQuery())
 			{
-				DatabaseMetaData meta = connection.getMetaData();
-				
-				ResultSet rs = getProcedures(connection);
-				
 				while(rs.next() && !monitor.isCanceled())
 				{
 					ReturnTypeFlavor returnTypeFlavor;
@@ -381,180 +1145,149 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 					}
 					
 					List<Param> params = new ArrayList<>();
-					ResultSet rsp = meta.getProcedureColumns(null, "PUBLIC", null, name);
+					List<ProcedureColumn> columns = columnsMap.get(
+						getProcedureKey(rs.getString("PROCEDURE_SCHEM"), rs.getString("SPECIFIC_NAME")));
 					
-					while(rsp.next())
+					if(columns != null)
 					{
-						DataType dataType = DataType.get(rsp.getInt("DATA_TYPE"));
-						String columnName = rsp.getString("COLUMN_NAME");
-						switch(rsp.getInt("COLUMN_TYPE"))
+						for(ProcedureColumn column : columns)
 						{
-							case DatabaseMetaData.procedureColumnReturn:
-								returnTypeFlavor = ReturnTypeFlavor.TYPE;
-								returnType = dataType;
-								break;
-							
-							case DatabaseMetaData.procedureColumnResult:
-								returnTypeFlavor = ReturnTypeFlavor.RESULT_SET;
-								break;
-							
-							case DatabaseMetaData.procedureColumnIn:
-								params.add(new Param(ParamType.IN, columnName, dataType));
-								break;
-							
-							case DatabaseMetaData.procedureColumnOut:
-								params.add(new Param(ParamType.OUT, columnName, dataType));
-								break;
-							
-							case DatabaseMetaData.procedureColumnInOut:
-								params.add(new Param(ParamType.IN_OUT, columnName, dataType));
-								break;
-							
-							default:
-								break;
+							switch(column.columnType)
+							{
+								case DatabaseMetaData.procedureColumnReturn:
+									returnTypeFlavor = ReturnTypeFlavor.TYPE;
+									returnType = column.dataType;
+									break;
+								
+								case DatabaseMetaData.procedureColumnResult:
+									returnTypeFlavor = ReturnTypeFlavor.RESULT_SET;
+									break;
+								
+								case DatabaseMetaData.procedureColumnIn:
+									params.add(new Param(ParamType.IN, column.name, column.dataType));
+									break;
+								
+								case DatabaseMetaData.procedureColumnOut:
+									params.add(new Param(ParamType.OUT, column.name, column.dataType));
+									break;
+								
+								case DatabaseMetaData.procedureColumnInOut:
+									params.add(new Param(ParamType.IN_OUT, column.name, column.dataType));
+									break;
+								
+								default:
+									break;
+							}
 						}
 					}
-					rsp.close();
 					
 					list.add(new StoredProcedure(returnTypeFlavor, returnType, name, description,
 						params.toArray(new Param[params.size()])));
 				}
-				rs.close();
 			}
 		}
 		catch(SQLException e)
 		{
-			throw new DBException(dataSource, e);
+			throw new SQLException("SqlStatement: " + sql, e);
 		}
 		
-		monitor.done();
-		
-		return list.toArray(new StoredProcedure[list.size()]);
+		return list;
 	}
 	
-	private String convDataTypeString(String dataType)
+	/**
+	 * Reads the parameters of all procedures of the given schemas, grouped by schema and specific name.
+	 */
+	private Map<String, List<ProcedureColumn>> getProcedureColumns(Connection connection, String[] schemas)
+		throws SQLException
 	{
-		if(dataType.equalsIgnoreCase("character"))
-		{
-			dataType = "CHAR";
-		}
-		else if(dataType.equalsIgnoreCase("bit"))
-		{
-			dataType = "BOOLEAN";
-		}
-		else if(dataType.equalsIgnoreCase("other"))
-		{
-			dataType = "OBJECT";
-		}
-		else if(dataType.equalsIgnoreCase("datetime"))
+		String sql = "SELECT PROCEDURE_SCHEM, SPECIFIC_NAME, COLUMN_NAME, COLUMN_TYPE, DATA_TYPE "
+			+ "FROM INFORMATION_SCHEMA.SYSTEM_PROCEDURECOLUMNS WHERE PROCEDURE_SCHEM IN "
+			+ createParameterList(schemas.length) + " ORDER BY PROCEDURE_SCHEM, SPECIFIC_NAME, ORDINAL_POSITION";
+		
+		Map<String, List<ProcedureColumn>> columnsMap = new HashMap<>();
+		
+		try(PreparedStatement statement = connection.prepareStatement(sql))
 		{
-			dataType = "TIMESTAMP";
+			for(int i = 0; i < schemas.length; i++)
+			{
+				statement.setString(i + 1, schemas[i]);
+			}
+			
+			try(ResultSet rs = statement.executeQuery())
+			{
+				while(rs.next())
+				{
+					String key = getProcedureKey(rs.getString("PROCEDURE_SCHEM"), rs.getString("SPECIFIC_NAME"));
+					List<ProcedureColumn> columns = columnsMap.get(key);
+					if(columns == null)
+					{
+						columns = new ArrayList<>();
+						columnsMap.put(key, columns);
+					}
+					columns.add(new ProcedureColumn(
+						rs.getString("COLUMN_NAME"),
+						rs.getInt("COLUMN_TYPE"),
+						DataType.get(rs.getInt("DATA_TYPE"))));
+				}
+			}
 		}
-		else if(dataType.equalsIgnoreCase("int"))
+		catch(SQLException e)
 		{
-			dataType = "INTEGER";
+			throw new SQLException("SqlStatement: " + sql, e);
 		}
-		return dataType;
+		
+		return columnsMap;
 	}
 	
-	private ResultSet getProcedures(Connection connection) throws SQLException
+	private static String getProcedureKey(String schema, String specificName)
 	{
-		String sql =
-			"SELECT PROCEDURE_NAME,REMARKS, DATA_TYPE, PROCEDURE_TYPE FROM INFORMATION_SCHEMA.SYSTEM_PROCEDURES, "
-				+ "INFORMATION_SCHEMA.ROUTINES WHERE INFORMATION_SCHEMA.SYSTEM_PROCEDURES.SPECIFIC_NAME LIKE "
-				+ "INFORMATION_SCHEMA.ROUTINES.SPECIFIC_NAME AND PROCEDURE_SCHEM LIKE 'PUBLIC'";
-		
-		JDBCStatement localJDBCStatement;
-		ResultSet executeQuery = null;
-		try
-		{
-			localJDBCStatement = (JDBCStatement)connection.createStatement(1004, 1007);
-			executeQuery = localJDBCStatement.executeQuery(sql);
-		}
-		catch(SQLException e)
-		{
-			throw new SQLException("SqlStatement: " + sql);
-		}
-		return executeQuery;
+		return schema + "." + specificName;
 	}
 	
+	/**
+	 * Builds the relationship model from INFORMATION_SCHEMA.SYSTEM_CROSSREFERENCE. The primary key tables are passed
+	 * as IN list in chunks of up to {@value #BULK_CHUNK_SIZE} tables, so only their foreign keys are read, and
+	 * progress is reported per chunk. Only foreign keys whose primary key and foreign key tables are both part of
+	 * <code>tableInfos</code> are added.
+	 */
 	@Override
 	public EntityRelationshipModel getEntityRelationshipModel(
 		ProgressMonitor monitor,
 		TableInfo... tableInfos) throws DBException
 	{
-		monitor.beginTask("", tableInfos.length);
-		
 		EntityRelationshipModel model = new EntityRelationshipModel();
 		
-		try
+		Set<String> tables = new LinkedHashSet<>();
+		for(TableInfo table : tableInfos)
 		{
-			List<String> tables = new ArrayList<>();
-			for(TableInfo table : tableInfos)
+			if(table.getType() == TableType.TABLE)
 			{
-				if(table.getType() == TableType.TABLE)
-				{
-					tables.add(table.getName());
-				}
+				tables.add(table.getName());
 			}
-			Collections.sort(tables);
+		}
+		
+		monitor.beginTask("", tables.size());
+		
+		if(!tables.isEmpty())
+		{
+			Object[] tableNames = tables.toArray();
 			
-			try(Connection connection = dataSource.getConnectionProvider().getConnection())
+			try(JDBCConnection jdbcConnection = (JDBCConnection)dataSource.openConnection())
 			{
-				DatabaseMetaData meta = connection.getMetaData();
 				int done = 0;
-				
-				for(String table : tables)
+				for(int start = 0; start < tableNames.length && !monitor.isCanceled(); start += BULK_CHUNK_SIZE)
 				{
-					if(monitor.isCanceled())
-					{
-						break;
-					}
-					
-					monitor.setTaskName(table);
-					
-					ResultSet rs = meta.getExportedKeys(null, null, table);
-					try
-					{
-						String pkTable = null;
-						String fkTable = null;
-						List<String> pkColumns = new ArrayList();
-						List<String> fkColumns = new ArrayList();
-						
-						while(rs.next())
-						{
-							short keySeq = rs.getShort("KEY_SEQ");
-							
-							if(keySeq == 1 && pkColumns.size() > 0)
-							{
-								addNewEntityRelationshipToModel(model, tables, pkTable, fkTable, pkColumns, fkColumns);
-							}
-							
-							pkTable = rs.getString("PKTABLE_NAME");
-							fkTable = rs.getString("FKTABLE_NAME");
-							
-							pkColumns.add(rs.getString("PKCOLUMN_NAME"));
-							fkColumns.add(rs.getString("FKCOLUMN_NAME"));
-						}
-						
-						if(pkColumns.size() > 0)
-						{
-							addNewEntityRelationshipToModel(model, tables, pkTable, fkTable, pkColumns, fkColumns);
-						}
-					}
-					finally
-					{
-						rs.close();
-					}
+					Object[] chunk = Arrays.copyOfRange(
+						tableNames,
+						start,
+						Math.min(tableNames.length, start + BULK_CHUNK_SIZE));
+					addEntityRelationships(jdbcConnection, model, tables, chunk, monitor);
 					
-					monitor.worked(++done);
+					done += chunk.length;
+					monitor.worked(done);
 				}
 			}
 		}
-		catch(SQLException e)
-		{
-			throw new DBException(dataSource, e);
-		}
 		
 		monitor.done();
 		
@@ -562,17 +1295,60 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 	}
 	
 	/**
-	 * Checks if the table contains PK and FK. If true, than it adds a new One-To-Many-Relationship to the model
+	 * Adds the foreign keys referencing the primary key tables of <code>chunk</code> to the model.
+	 */
+	private void addEntityRelationships(
+		JDBCConnection jdbcConnection, EntityRelationshipModel model, Set<String> tables,
+		Object[] chunk, ProgressMonitor monitor) throws DBException
+	{
+		Result result = jdbcConnection.query("SELECT PKTABLE_NAME, PKCOLUMN_NAME, "
+			+ "FKTABLE_SCHEM, FKTABLE_NAME, FKCOLUMN_NAME, FK_NAME "
+			+ "FROM INFORMATION_SCHEMA.SYSTEM_CROSSREFERENCE "
+			+ "WHERE PKTABLE_NAME IN " + createParameterList(chunk.length) + " "
+			+ "ORDER BY PKTABLE_NAME, FKTABLE_NAME, FKTABLE_SCHEM, FK_NAME, KEY_SEQ", chunk);
+		
+		String foreignKey = null;
+		String pkTable = null;
+		String fkTable = null;
+		List<String> pkColumns = new ArrayList<>();
+		List<String> fkColumns = new ArrayList<>();
+		
+		while(result.next() && !monitor.isCanceled())
+		{
+			String nextFkTable = result.getString("FKTABLE_NAME");
+			if(!tables.contains(nextFkTable))
+			{
+				continue;
+			}
+			
+			String nextForeignKey = result.getString("FKTABLE_SCHEM") + "." + result.getString("FK_NAME");
+			if(!nextForeignKey.equals(foreignKey))
+			{
+				addNewEntityRelationshipToModel(model, pkTable, fkTable, pkColumns, fkColumns);
+				foreignKey = nextForeignKey;
+				pkTable = result.getString("PKTABLE_NAME");
+				fkTable = nextFkTable;
+			}
+			
+			pkColumns.add(result.getString("PKCOLUMN_NAME"));
+			fkColumns.add(result.getString("FKCOLUMN_NAME"));
+		}
+		result.close();
+		
+		addNewEntityRelationshipToModel(model, pkTable, fkTable, pkColumns, fkColumns);
+	}
+	
+	/**
+	 * Adds a new One-To-Many-Relationship to the model if columns have been collected for it
 	 */
 	private void addNewEntityRelationshipToModel(
 		EntityRelationshipModel model,
-		List<String> tables,
 		String pkTable,
 		String fkTable,
 		List<String> pkColumns,
 		List<String> fkColumns)
 	{
-		if(tables.contains(pkTable) && tables.contains(fkTable))
+		if(!pkColumns.isEmpty())
 		{
 			model.add(new EntityRelationship(
 				new Entity(
@@ -697,6 +1473,18 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 	@Override
 	protected void createTable(JDBCConnection jdbcConnection, TableMetaData table)
 		throws DBException, SQLException
+	{
+		jdbcConnection.write(
+			createTableStatement(table),
+			false,
+			new ArrayList<>().toArray()
+		);
+		
+		invalidate(table.getTableInfo());
+		cache.invalidateTableInfos();
+	}
+	
+	String createTableStatement(TableMetaData table) throws DBException
 	{
 		StringBuilder sb = new StringBuilder();
 		sb.append("CREATE CACHED TABLE ");
@@ -728,11 +1516,7 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 		
 		sb.append(")");
 		
-		jdbcConnection.write(
-			sb.toString(),
-			false,
-			new ArrayList<>().toArray()
-		);
+		return sb.toString();
 	}
 	
 	@Override
@@ -740,6 +1524,19 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 		JDBCConnection jdbcConnection, TableMetaData table,
 		ColumnMetaData column, ColumnMetaData columnBefore, ColumnMetaData columnAfter)
 		throws DBException, SQLException
+	{
+		jdbcConnection.write(
+			addColumnStatement(table, column, columnBefore, columnAfter),
+			false,
+			new ArrayList<>().toArray()
+		);
+		
+		invalidate(table.getTableInfo());
+	}
+	
+	String addColumnStatement(
+		TableMetaData table, ColumnMetaData column,
+		ColumnMetaData columnBefore, ColumnMetaData columnAfter)
 	{
 		StringBuilder sb = new StringBuilder();
 		sb.append("ALTER TABLE ");
@@ -754,17 +1551,24 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 			appendEscapedName(columnBefore.getName(), sb);
 		}
 		
-		jdbcConnection.write(
-			sb.toString(),
-			false,
-			new ArrayList<>().toArray()
-		);
+		return sb.toString();
 	}
 	
 	@Override
 	protected void alterColumn(
 		JDBCConnection jdbcConnection, TableMetaData table,
 		ColumnMetaData column, ColumnMetaData existing) throws DBException, SQLException
+	{
+		jdbcConnection.write(
+			alterColumnStatement(table, column, existing),
+			false,
+			new ArrayList<>().toArray()
+		);
+		
+		invalidate(table.getTableInfo());
+	}
+	
+	String alterColumnStatement(TableMetaData table, ColumnMetaData column, ColumnMetaData existing)
 	{
 		StringBuilder sb = new StringBuilder();
 		sb.append("ALTER TABLE ");
@@ -774,11 +1578,7 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 		sb.append(" ");
 		appendColumnDefinition(column, sb);
 		
-		jdbcConnection.write(
-			sb.toString(),
-			false,
-			new ArrayList<>().toArray()
-		);
+		return sb.toString();
 	}
 	
 	@SuppressWarnings("incomplete-switch")
@@ -859,6 +1659,13 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 	protected void dropColumn(
 		JDBCConnection jdbcConnection, TableMetaData table,
 		ColumnMetaData column) throws DBException, SQLException
+	{
+		jdbcConnection.write(dropColumnStatement(table, column));
+		
+		invalidate(table.getTableInfo());
+	}
+	
+	String dropColumnStatement(TableMetaData table, ColumnMetaData column)
 	{
 		StringBuilder sb = new StringBuilder();
 		sb.append("ALTER TABLE ");
@@ -866,7 +1673,7 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 		sb.append(" DROP COLUMN ");
 		appendEscapedName(column.getName(), sb);
 		
-		jdbcConnection.write(sb.toString());
+		return sb.toString();
 	}
 	
 	@Override
@@ -878,16 +1685,23 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 			return;
 		}
 		
+		jdbcConnection.write(createIndexStatement(table, index));
+		
+		invalidate(table.getTableInfo());
+	}
+	
+	String createIndexStatement(TableMetaData table, Index index) throws DBException
+	{
 		StringBuilder sb = new StringBuilder();
 		sb.append("ALTER TABLE ");
 		appendEscapedName(table.getTableInfo().getName(), sb);
 		sb.append(" ADD ");
 		appendIndexDefinition(index, sb);
 		
-		jdbcConnection.write(sb.toString());
+		return sb.toString();
 	}
 	
-	private boolean isSupported(Index index)
+	boolean isSupported(Index index)
 	{
 		return index.getType() != IndexType.NORMAL;
 	}
@@ -932,6 +1746,13 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 	@Override
 	protected void dropIndex(JDBCConnection jdbcConnection, TableMetaData table, Index index)
 		throws DBException, SQLException
+	{
+		jdbcConnection.write(dropIndexStatement(table, index));
+		
+		invalidate(table.getTableInfo());
+	}
+	
+	String dropIndexStatement(TableMetaData table, Index index)
 	{
 		StringBuilder sb = new StringBuilder();
 		sb.append("ALTER TABLE ");
@@ -940,7 +1761,7 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 		sb.append(" DROP CONSTRAINT ");
 		appendEscapedName(getValidIndexName(index), sb);
 		
-		jdbcConnection.write(sb.toString());
+		return sb.toString();
 	}
 	
 	private String getValidIndexName(Index index)
@@ -981,4 +1802,111 @@ public class HSQL2JDBCMetaData extends JDBCMetaData
 		
 		return tableStatement;
 	}
+	
+	/**
+	 * Collects the rows of the information schema views belonging to one table and assembles its
+	 * {@link TableMetaData}.
+	 */
+	private class TableMetaDataBuilder
+	{
+		final TableInfo table;
+		final List<ColumnMetaData> columns = new ArrayList<>();
+		final Set<String> primaryKeyColumns = new HashSet<>();
+		final Map<IndexInfo, Set<String>> indexMap = new HashMap<>();
+		String primaryKeyName = "PRIMARY_KEY";
+		int count = UNKNOWN_ROW_COUNT;
+		boolean rowCountEstimated;
+		
+		TableMetaDataBuilder(TableInfo table)
+		{
+			this.table = table;
+		}
+		
+		void addColumn(Result result, boolean autoIncrement) throws DBException
+		{
+			addMetaDataToColumns(table, autoIncrement, result, columns);
+		}
+		
+		void addPrimaryKeyColumn(Result result) throws DBException
+		{
+			primaryKeyColumns.add(result.getString("COLUMN_NAME"));
+			primaryKeyName = result.getString("PK_NAME");
+		}
+		
+		/**
+		 * Must be called after all primary key columns have been added.
+		 */
+		void addIndexColumn(Result result) throws DBException
+		{
+			String indexName = result.getString("INDEX_NAME");
+			String columnName = result.getString("COLUMN_NAME");
+			if(indexName != null
+				&& columnName != null
+				&& !primaryKeyColumns.contains(columnName))
+			{
+				boolean unique = !result.getBoolean("NON_UNIQUE");
+				IndexInfo info = new IndexInfo(indexName, unique ? IndexType.UNIQUE : IndexType.NORMAL);
+				Set<String> columnNames = indexMap.get(info);
+				if(columnNames == null)
+				{
+					columnNames = new HashSet<>();
+					indexMap.put(info, columnNames);
+				}
+				columnNames.add(columnName);
+			}
+		}
+		
+		TableMetaData build(int flags)
+		{
+			if((flags & INDICES) != 0 && !primaryKeyColumns.isEmpty())
+			{
+				indexMap.put(new IndexInfo(primaryKeyName, IndexType.PRIMARY_KEY), primaryKeyColumns);
+			}
+			
+			Index[] indices = new Index[indexMap.size()];
+			int i = 0;
+			for(IndexInfo indexInfo : indexMap.keySet())
+			{
+				Set<String> columnList = indexMap.get(indexInfo);
+				String[] indexColumns = columnList.toArray(new String[columnList.size()]);
+				indices[i++] = new Index(indexInfo.name, indexInfo.type, indexColumns);
+			}
+			
+			return new HSQL2TableMetaData(
+				table,
+				columns.toArray(new ColumnMetaData[columns.size()]),
+				indices,
+				count,
+				rowCountEstimated
+			);
+		}
+	}
+	
+	private static final class ChunkResult
+	{
+		final int index;
+		final List<TableMetaData> metaData;
+		final Throwable exception;
+		
+		ChunkResult(int index, List<TableMetaData> metaData, Throwable exception)
+		{
+			this.index = index;
+			this.metaData = metaData;
+			this.exception = exception;
+		}
+	}
+	
+	private static final class ProcedureColumn
+	{
+		final String name;
+		final int columnType;
+		final DataType dataType;
+		
+		ProcedureColumn(String name, int columnType, DataType dataType)
+		{
+			this.name = name;
+			this.columnType = columnType;
+			this.dataType = dataType;
+		}
+	}
 }
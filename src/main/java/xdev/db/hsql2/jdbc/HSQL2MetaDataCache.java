@@ -0,0 +1,273 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import xdev.db.DBMetaData.TableInfo;
+import xdev.db.DBMetaData.TableMetaData;
+import xdev.db.DBMetaData.TableType;
+
+
+/**
+ * Per data source cache of the table infos and table meta data read by {@link HSQL2JDBCMetaData}.
+ * <p>
+ * The table meta data is kept in a LRU map of bounded size. Entries are invalidated when the adapter runs DDL
+ * itself. Changes made by other clients are detected by comparing a fingerprint of the schema, see
+ * {@link #validate(Connection)}, which runs at most every {@link #DEFAULT_VALIDATION_INTERVAL} milliseconds
+ * unless configured otherwise. Row counts are never cached.
+ */
+public class HSQL2MetaDataCache
+{
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	
+	/**
+	 * The default interval in milliseconds between two checks for schema changes made by other clients.
+	 */
+	public static final long DEFAULT_VALIDATION_INTERVAL = 5000;
+	
+	private static final String FINGERPRINT_FILTER = " WHERE TABLE_SCHEM NOT IN ('INFORMATION_SCHEMA', 'SYSTEM_LOBS')";
+	
+	/**
+	 * Everything of the schema that is part of the cached meta data: tables, column names, types, defaults, and the
+	 * columns of all indices, primary keys and unique constraints.
+	 */
+	private static final String[] FINGERPRINT_QUERIES = {
+		"SELECT TABLE_SCHEM, TABLE_NAME, TABLE_TYPE FROM INFORMATION_SCHEMA.SYSTEM_TABLES" + FINGERPRINT_FILTER,
+		"SELECT TABLE_SCHEM, TABLE_NAME, COLUMN_NAME, ORDINAL_POSITION, TYPE_NAME, COLUMN_SIZE, DECIMAL_DIGITS, "
+			+ "NULLABLE, COLUMN_DEF, IS_AUTOINCREMENT FROM INFORMATION_SCHEMA.SYSTEM_COLUMNS" + FINGERPRINT_FILTER,
+		"SELECT TABLE_SCHEM, TABLE_NAME, INDEX_NAME, NON_UNIQUE, ORDINAL_POSITION, COLUMN_NAME "
+			+ "FROM INFORMATION_SCHEMA.SYSTEM_INDEXINFO" + FINGERPRINT_FILTER,
+		"SELECT TABLE_SCHEM, TABLE_NAME, PK_NAME, KEY_SEQ, COLUMN_NAME "
+			+ "FROM INFORMATION_SCHEMA.SYSTEM_PRIMARYKEYS" + FINGERPRINT_FILTER
+	};
+	
+	private final Map<EnumSet<TableType>, TableInfo[]> tableInfos = new HashMap<>();
+	private final Map<String, TableMetaData> tableMetaData;
+	
+	private volatile int maxSize;
+	private volatile boolean enabled = true;
+	private volatile long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+	
+	private long lastValidation;
+	private String fingerprint;
+	
+	public HSQL2MetaDataCache()
+	{
+		this(DEFAULT_MAX_SIZE);
+	}
+	
+	/**
+	 * @param maxSize the maximum number of cached table meta data entries
+	 */
+	public HSQL2MetaDataCache(int maxSize)
+	{
+		this.maxSize = maxSize;
+		this.tableMetaData = new LinkedHashMap<String, TableMetaData>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, TableMetaData> eldest)
+			{
+				return size() > HSQL2MetaDataCache.this.maxSize;
+			}
+		};
+	}
+	
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+	
+	/**
+	 * Enables or disables the cache. Disabling it drops all cached entries.
+	 */
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+		if(!enabled)
+		{
+			clear();
+		}
+	}
+	
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+	
+	public synchronized void setMaxSize(int maxSize)
+	{
+		this.maxSize = maxSize;
+		
+		Iterator<String> it = tableMetaData.keySet().iterator();
+		while(tableMetaData.size() > maxSize && it.hasNext())
+		{
+			it.next();
+			it.remove();
+		}
+	}
+	
+	public long getValidationInterval()
+	{
+		return validationInterval;
+	}
+	
+	/**
+	 * Sets the interval in milliseconds after which {@link HSQL2JDBCMetaData} checks for schema changes made by
+	 * other clients before it serves entries from this cache. A negative value disables the automatic check, so that
+	 * changes by other clients are only seen after {@link #clear()}.
+	 */
+	public void setValidationInterval(long validationInterval)
+	{
+		this.validationInterval = validationInterval;
+	}
+	
+	public synchronized boolean isValidationDue()
+	{
+		return validationInterval >= 0
+			&& System.currentTimeMillis() - lastValidation >= validationInterval;
+	}
+	
+	/**
+	 * Compares the current schema fingerprint of the database with the one of the last validation and clears
+	 * the cache if they differ.
+	 *
+	 * @return <code>true</code> if the schema has changed since the last validation
+	 */
+	public boolean validate(Connection connection) throws SQLException
+	{
+		String current = fingerprint(connection);
+		
+		synchronized(this)
+		{
+			lastValidation = System.currentTimeMillis();
+			boolean changed = fingerprint != null && !fingerprint.equals(current);
+			if(changed)
+			{
+				clear();
+			}
+			fingerprint = current;
+			return changed;
+		}
+	}
+	
+	public synchronized TableInfo[] getTableInfos(EnumSet<TableType> types)
+	{
+		TableInfo[] tables = tableInfos.get(types);
+		return tables != null ? tables.clone() : null;
+	}
+	
+	public synchronized void putTableInfos(EnumSet<TableType> types, TableInfo[] tables)
+	{
+		if(enabled)
+		{
+			tableInfos.put(EnumSet.copyOf(types), tables.clone());
+		}
+	}
+	
+	public synchronized TableMetaData getTableMetaData(TableInfo table, int flags)
+	{
+		return tableMetaData.get(getKey(table, flags));
+	}
+	
+	public synchronized void putTableMetaData(TableInfo table, int flags, TableMetaData metaData)
+	{
+		if(enabled)
+		{
+			tableMetaData.put(getKey(table, flags), metaData);
+		}
+	}
+	
+	/**
+	 * Drops all cached meta data of the given table. Tables of the same name in other schemas are dropped as well,
+	 * since the schema of a {@link TableInfo} is optional.
+	 */
+	public synchronized void invalidate(TableInfo table)
+	{
+		String prefix = getTableKey(table);
+		tableMetaData.keySet().removeIf(key -> key.startsWith(prefix));
+	}
+	
+	/**
+	 * Drops the cached table lists, e.g. after a table has been created.
+	 */
+	public synchronized void invalidateTableInfos()
+	{
+		tableInfos.clear();
+	}
+	
+	public synchronized void clear()
+	{
+		tableInfos.clear();
+		tableMetaData.clear();
+	}
+	
+	/**
+	 * Hashes the rows of the fingerprint queries. The row hashes are added up, so that the fingerprint does not
+	 * depend on the order of the rows.
+	 */
+	static String fingerprint(Connection connection) throws SQLException
+	{
+		StringBuilder sb = new StringBuilder();
+		try(Statement statement = connection.createStatement())
+		{
+			for(String query : FINGERPRINT_QUERIES)
+			{
+				long count = 0;
+				long sum = 0;
+				try(ResultSet rs = statement.executeQuery(query))
+				{
+					int columnCount = rs.getMetaData().getColumnCount();
+					while(rs.next())
+					{
+						long rowHash = 1;
+						for(int i = 1; i <= columnCount; i++)
+						{
+							String value = rs.getString(i);
+							rowHash = rowHash * 31 + (value == null ? 0 : HSQL2DistinctSketch.hash(value));
+						}
+						sum += HSQL2DistinctSketch.hash(rowHash);
+						count++;
+					}
+				}
+				sb.append(count).append(':').append(Long.toHexString(sum)).append('|');
+			}
+		}
+		return sb.toString();
+	}
+	
+	private static String getKey(TableInfo table, int flags)
+	{
+		return getTableKey(table) + table.getSchema() + "#" + flags;
+	}
+	
+	private static String getTableKey(TableInfo table)
+	{
+		return table.getName() + "#";
+	}
+}
@@ -0,0 +1,271 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import xdev.db.ColumnMetaData;
+import xdev.db.DBException;
+import xdev.db.DBMetaData.TableInfo;
+import xdev.db.DBMetaData.TableMetaData;
+import xdev.db.Index;
+
+
+/**
+ * Collects schema changes and applies them with one JDBC batch on a single connection.
+ * <p>
+ * Operations on the same column are merged while they are collected: an altered column which is added by the same
+ * plan is added with its final definition, repeated alterations of a column are reduced to the last one, and a
+ * column or constraint which is created and dropped again by the plan is not touched at all.
+ * <p>
+ * A plan is not applied atomically. HSQLDB commits every DDL statement implicitly, so if a statement fails, the
+ * statements executed before it stay in effect and cannot be rolled back.
+ *
+ * @see HSQL2JDBCMetaData#createMigrationPlan()
+ */
+public class HSQL2MigrationPlan
+{
+	private enum Kind
+	{
+		CREATE_TABLE,
+		ADD_COLUMN,
+		ALTER_COLUMN,
+		DROP_COLUMN,
+		CREATE_INDEX,
+		DROP_INDEX
+	}
+	
+	private final HSQL2JDBCMetaData metaData;
+	private final List<Operation> operations = new ArrayList<>();
+	
+	HSQL2MigrationPlan(final HSQL2JDBCMetaData metaData)
+	{
+		this.metaData = metaData;
+	}
+	
+	public HSQL2MigrationPlan createTable(final TableMetaData table)
+	{
+		this.operations.add(new Operation(Kind.CREATE_TABLE, table, null, null, null, null));
+		return this;
+	}
+	
+	public HSQL2MigrationPlan addColumn(
+		final TableMetaData table, final ColumnMetaData column,
+		final ColumnMetaData columnBefore, final ColumnMetaData columnAfter)
+	{
+		this.operations.add(new Operation(Kind.ADD_COLUMN, table, column, columnBefore, columnAfter, null));
+		return this;
+	}
+	
+	public HSQL2MigrationPlan alterColumn(
+		final TableMetaData table, final ColumnMetaData column,
+		final ColumnMetaData existing)
+	{
+		if(column.getName().equals(existing.getName()))
+		{
+			final Operation previous = this.findColumnOperation(table, existing.getName());
+			if(previous != null && (previous.kind == Kind.ADD_COLUMN || previous.kind == Kind.ALTER_COLUMN))
+			{
+				previous.column = column;
+				return this;
+			}
+		}
+		
+		this.operations.add(new Operation(Kind.ALTER_COLUMN, table, column, existing, null, null));
+		return this;
+	}
+	
+	public HSQL2MigrationPlan dropColumn(final TableMetaData table, final ColumnMetaData column)
+	{
+		Operation previous;
+		while((previous = this.findColumnOperation(table, column.getName())) != null
+			&& previous.kind == Kind.ALTER_COLUMN
+			&& previous.existing.getName().equals(column.getName()))
+		{
+			this.operations.remove(previous);
+		}
+		
+		if(previous != null && previous.kind == Kind.ADD_COLUMN)
+		{
+			this.operations.remove(previous);
+			return this;
+		}
+		
+		this.operations.add(new Operation(Kind.DROP_COLUMN, table, column, null, null, null));
+		return this;
+	}
+	
+	/**
+	 * Adds a primary key or unique constraint. Normal indices are not supported by this adapter and are ignored.
+	 */
+	public HSQL2MigrationPlan createIndex(final TableMetaData table, final Index index)
+	{
+		if(this.metaData.isSupported(index))
+		{
+			this.operations.add(new Operation(Kind.CREATE_INDEX, table, null, null, null, index));
+		}
+		return this;
+	}
+	
+	public HSQL2MigrationPlan dropIndex(final TableMetaData table, final Index index)
+	{
+		for(int i = this.operations.size() - 1; i >= 0; i--)
+		{
+			final Operation operation = this.operations.get(i);
+			if(operation.kind == Kind.CREATE_INDEX
+				&& isSameTable(operation.table, table)
+				&& Objects.equals(operation.index.getName(), index.getName()))
+			{
+				this.operations.remove(i);
+				return this;
+			}
+		}
+		
+		this.operations.add(new Operation(Kind.DROP_INDEX, table, null, null, null, index));
+		return this;
+	}
+	
+	public int size()
+	{
+		return this.operations.size();
+	}
+	
+	public boolean isEmpty()
+	{
+		return this.operations.isEmpty();
+	}
+	
+	/**
+	 * @return the statements which {@link #execute()} would run, in execution order
+	 */
+	public List<String> getStatements() throws DBException
+	{
+		final List<String> statements = new ArrayList<>(this.operations.size());
+		for(final Operation operation : this.operations)
+		{
+			statements.add(this.createStatement(operation));
+		}
+		return statements;
+	}
+	
+	/**
+	 * Runs all collected operations as one JDBC batch and clears the plan afterwards.
+	 */
+	public void execute() throws DBException
+	{
+		final Map<String, TableInfo> tables = new LinkedHashMap<>();
+		for(final Operation operation : this.operations)
+		{
+			final TableInfo tableInfo = operation.table.getTableInfo();
+			tables.put(getTableKey(operation.table), tableInfo);
+		}
+		
+		this.metaData.executeMigration(this.getStatements(), tables.values());
+		this.operations.clear();
+	}
+	
+	private String createStatement(final Operation operation) throws DBException
+	{
+		switch(operation.kind)
+		{
+			case CREATE_TABLE:
+				return this.metaData.createTableStatement(operation.table);
+			
+			case ADD_COLUMN:
+				return this.metaData.addColumnStatement(
+					operation.table,
+					operation.column,
+					operation.existing,
+					operation.columnAfter);
+			
+			case ALTER_COLUMN:
+				return this.metaData.alterColumnStatement(operation.table, operation.column, operation.existing);
+			
+			case DROP_COLUMN:
+				return this.metaData.dropColumnStatement(operation.table, operation.column);
+			
+			case CREATE_INDEX:
+				return this.metaData.createIndexStatement(operation.table, operation.index);
+			
+			case DROP_INDEX:
+				return this.metaData.dropIndexStatement(operation.table, operation.index);
+			
+			default:
+				throw new IllegalStateException(operation.kind.name());
+		}
+	}
+	
+	/**
+	 * Returns the last collected operation on the given column, or <code>null</code> if there is none.
+	 */
+	private Operation findColumnOperation(final TableMetaData table, final String columnName)
+	{
+		for(int i = this.operations.size() - 1; i >= 0; i--)
+		{
+			final Operation operation = this.operations.get(i);
+			if(operation.column != null
+				&& isSameTable(operation.table, table)
+				&& (operation.column.getName().equals(columnName)
+				|| operation.kind == Kind.ALTER_COLUMN && operation.existing.getName().equals(columnName)))
+			{
+				return operation;
+			}
+		}
+		return null;
+	}
+	
+	private static boolean isSameTable(final TableMetaData table1, final TableMetaData table2)
+	{
+		return getTableKey(table1).equals(getTableKey(table2));
+	}
+	
+	private static String getTableKey(final TableMetaData table)
+	{
+		final TableInfo tableInfo = table.getTableInfo();
+		return tableInfo.getSchema() + "." + tableInfo.getName();
+	}
+	
+	private static final class Operation
+	{
+		final Kind kind;
+		final TableMetaData table;
+		ColumnMetaData column;
+		/**
+		 * The existing column for {@link Kind#ALTER_COLUMN}, the column before for {@link Kind#ADD_COLUMN}.
+		 */
+		final ColumnMetaData existing;
+		final ColumnMetaData columnAfter;
+		final Index index;
+		
+		Operation(
+			final Kind kind, final TableMetaData table, final ColumnMetaData column,
+			final ColumnMetaData existing, final ColumnMetaData columnAfter, final Index index)
+		{
+			this.kind = kind;
+			this.table = table;
+			this.column = column;
+			this.existing = existing;
+			this.columnAfter = columnAfter;
+			this.index = index;
+		}
+	}
+}
@@ -18,16 +18,67 @@
 
 package xdev.db.hsql2.jdbc;
 
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
 import com.xdev.jadoth.sqlengine.dbms.standard.StandardRetrospectionAccessor;
 import com.xdev.jadoth.sqlengine.exceptions.SQLEngineException;
 import com.xdev.jadoth.sqlengine.internal.tables.SqlIndex;
 import com.xdev.jadoth.sqlengine.internal.tables.SqlTableIdentity;
 
 
+/**
+ * Retrospection for HSQLDB 2.x. Columns are read from the standard INFORMATION_SCHEMA.COLUMNS view, indices from
+ * INFORMATION_SCHEMA.SYSTEM_INDEXINFO. Loaded indices are cached per table until they are invalidated, see
+ * {@link #invalidate(String, String)}, or older than the index refresh interval, which defaults to the validation
+ * interval of {@link HSQL2MetaDataCache}. A detected schema change drops them together with the meta data cache.
+ * Columns are not cached here: the SQL engine runs the query of
+ * {@link #createSelect_INFORMATION_SCHEMA_COLUMNS(SqlTableIdentity)} itself, so the accessor never sees the result.
+ * Column statistics are estimated from the first rows of a table and cached per table until they are older than the
+ * statistics refresh interval.
+ */
 public class HSQL2RetrospectionAccessor extends StandardRetrospectionAccessor<HSQL2Dbms>
 {
+	public static final String SYSTEMTABLE_COLUMNS = "INFORMATION_SCHEMA.COLUMNS";
+	public static final String SYSTEMTABLE_INDICES = "INFORMATION_SCHEMA.SYSTEM_INDEXINFO";
+	
+	/**
+	 * The default maximum number of tables whose indices are cached.
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 500;
+	
+	/**
+	 * The default number of leading rows read for table statistics.
+	 */
+	public static final int DEFAULT_STATISTICS_SAMPLE_SIZE = 10000;
+	
+	/**
+	 * The default maximum age of cached table statistics in milliseconds.
+	 */
+	public static final long DEFAULT_STATISTICS_REFRESH_INTERVAL = 10 * 60 * 1000;
+	
+	/**
+	 * The default maximum age of cached indices in milliseconds.
+	 */
+	public static final long DEFAULT_INDEX_REFRESH_INTERVAL = HSQL2MetaDataCache.DEFAULT_VALIDATION_INTERVAL;
 	
-	private static final String HSQL_RETROSPECTION_NOT_IMPLEMENTED_YET = "HSQL Retrospection not implemented yet!";
+	public static final String SYSTEMTABLE_TABLESTATS = "INFORMATION_SCHEMA.SYSTEM_TABLESTATS";
+	
+	private final Map<String, CachedIndices> indexCache;
+	private final Map<String, HSQL2TableStatistics> statisticsCache;
+	
+	private volatile int cacheSize = DEFAULT_CACHE_SIZE;
+	private volatile int statisticsSampleSize = DEFAULT_STATISTICS_SAMPLE_SIZE;
+	private volatile long statisticsRefreshInterval = DEFAULT_STATISTICS_REFRESH_INTERVAL;
+	private volatile long indexRefreshInterval = DEFAULT_INDEX_REFRESH_INTERVAL;
 	
 	/**
 	 * Instantiates a new hsql20 retrospection accessor.
@@ -35,6 +86,27 @@ public class HSQL2RetrospectionAccessor extends StandardRetrospectionAccessor<HS
 	public HSQL2RetrospectionAccessor(final HSQL2Dbms dbmsadaptor)
 	{
 		super(dbmsadaptor);
+		
+		this.indexCache = new LinkedHashMap<String, CachedIndices>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, CachedIndices> eldest)
+			{
+				return this.size() > HSQL2RetrospectionAccessor.this.cacheSize;
+			}
+		};
+		this.statisticsCache = new LinkedHashMap<String, HSQL2TableStatistics>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, HSQL2TableStatistics> eldest)
+			{
+				return this.size() > HSQL2RetrospectionAccessor.this.cacheSize;
+			}
+		};
 	}
 	
 	/**
@@ -43,7 +115,11 @@ public class HSQL2RetrospectionAccessor extends StandardRetrospectionAccessor<HS
 	@Override
 	public String createSelect_INFORMATION_SCHEMA_COLUMNS(final SqlTableIdentity table)
 	{
-		throw new RuntimeException(HSQL_RETROSPECTION_NOT_IMPLEMENTED_YET);
+		final StringBuilder sb = new StringBuilder(256);
+		sb.append("SELECT * FROM ").append(SYSTEMTABLE_COLUMNS).append(" WHERE ");
+		appendTableCondition(sb, "TABLE_SCHEMA", table);
+		sb.append(" ORDER BY ORDINAL_POSITION");
+		return sb.toString();
 	}
 	
 	/**
@@ -52,16 +128,454 @@ public class HSQL2RetrospectionAccessor extends StandardRetrospectionAccessor<HS
 	@Override
 	public String createSelect_INFORMATION_SCHEMA_INDICES(final SqlTableIdentity table)
 	{
-		throw new RuntimeException(HSQL_RETROSPECTION_NOT_IMPLEMENTED_YET);
+		final StringBuilder sb = new StringBuilder(256);
+		sb.append("SELECT INDEX_NAME, NON_UNIQUE, COLUMN_NAME FROM ").append(SYSTEMTABLE_INDICES).append(" WHERE ");
+		appendTableCondition(sb, "TABLE_SCHEM", table);
+		sb.append(" ORDER BY INDEX_NAME, ORDINAL_POSITION");
+		return sb.toString();
 	}
 	
 	/**
+	 * Returns the indices of the given table. The result is cached until the table is invalidated or the index
+	 * refresh interval has passed.
+	 *
 	 * @throws SQLEngineException
 	 * @see com.xdev.jadoth.sqlengine.dbms.DbmsRetrospectionAccessor#loadIndices(SqlTableIdentity)
 	 */
 	@Override
 	public SqlIndex[] loadIndices(final SqlTableIdentity table) throws SQLEngineException
 	{
-		throw new RuntimeException(HSQL_RETROSPECTION_NOT_IMPLEMENTED_YET);
+		final String key = getCacheKey(table.sql().schema, table.sql().name);
+		synchronized(this.indexCache)
+		{
+			final CachedIndices cached = this.indexCache.get(key);
+			if(cached != null && System.currentTimeMillis() - cached.created <= this.indexRefreshInterval)
+			{
+				return cached.indices.clone();
+			}
+		}
+		
+		final List<SqlIndex> indices = new ArrayList<>();
+		
+		final ResultSet rs = this.getDbmsAdaptor().getDatabaseGateway().executeQuery(
+			this.createSelect_INFORMATION_SCHEMA_INDICES(table));
+		try
+		{
+			String indexName = null;
+			boolean unique = false;
+			final List<String> columns = new ArrayList<>();
+			
+			while(rs.next())
+			{
+				final String nextIndexName = rs.getString("INDEX_NAME");
+				if(!Objects.equals(nextIndexName, indexName))
+				{
+					addIndex(indices, table, indexName, unique, columns);
+					indexName = nextIndexName;
+					unique = !rs.getBoolean("NON_UNIQUE");
+				}
+				columns.add(rs.getString("COLUMN_NAME"));
+			}
+			addIndex(indices, table, indexName, unique, columns);
+		}
+		catch(final SQLException e)
+		{
+			throw new SQLEngineException(e);
+		}
+		finally
+		{
+			closeQuietly(rs);
+		}
+		
+		final SqlIndex[] result = indices.toArray(new SqlIndex[indices.size()]);
+		synchronized(this.indexCache)
+		{
+			this.indexCache.put(key, new CachedIndices(result));
+		}
+		return result.clone();
+	}
+	
+	/**
+	 * Returns the column statistics of the given table. Cached statistics are used until they are older than the
+	 * statistics refresh interval.
+	 *
+	 * @throws SQLEngineException
+	 * @see #loadTableStatistics(SqlTableIdentity)
+	 */
+	public HSQL2TableStatistics getTableStatistics(final SqlTableIdentity table) throws SQLEngineException
+	{
+		final String key = getCacheKey(table.sql().schema, table.sql().name);
+		synchronized(this.statisticsCache)
+		{
+			final HSQL2TableStatistics cached = this.statisticsCache.get(key);
+			if(cached != null && System.currentTimeMillis() - cached.getCreated() <= this.statisticsRefreshInterval)
+			{
+				return cached;
+			}
+		}
+		
+		final HSQL2TableStatistics statistics = this.loadTableStatistics(table);
+		synchronized(this.statisticsCache)
+		{
+			this.statisticsCache.put(key, statistics);
+		}
+		return statistics;
+	}
+	
+	/**
+	 * Estimates the column statistics of the given table without using the cache.
+	 * <p>
+	 * HSQLDB neither offers table sampling nor access to storage pages, and filtering rows with <code>RAND()</code>
+	 * would still read the whole table. So the estimate is computed from the first {@link #getStatisticsSampleSize()}
+	 * rows in the table's storage order, read with <code>LIMIT</code>; the server stops scanning after them. This
+	 * sample is not random: if the storage order correlates with a column, e.g. in tables filled in key order, the
+	 * estimate for that column is skewed. The distinct values of each column are counted with a
+	 * {@link HSQL2DistinctSketch} and extrapolated to the whole table from the number of values seen only once in the
+	 * sample (Haas and Stokes' Duj1 estimator). LOB, array and object columns are not sampled.
+	 *
+	 * @throws SQLEngineException
+	 */
+	public HSQL2TableStatistics loadTableStatistics(final SqlTableIdentity table) throws SQLEngineException
+	{
+		final long rowCount = this.loadRowCount(table);
+		final int sampleSize = this.statisticsSampleSize;
+		
+		final StringBuilder sb = new StringBuilder(128);
+		sb.append("SELECT * FROM ");
+		appendTableName(sb, table);
+		if(rowCount > sampleSize)
+		{
+			sb.append(" LIMIT ").append(sampleSize);
+		}
+		
+		final ResultSet rs = this.getDbmsAdaptor().getDatabaseGateway().executeQuery(sb.toString());
+		try
+		{
+			final ResultSetMetaData metaData = rs.getMetaData();
+			final int columnCount = metaData.getColumnCount();
+			final HSQL2DistinctSketch[] sketches = new HSQL2DistinctSketch[columnCount];
+			for(int i = 0; i < columnCount; i++)
+			{
+				if(isSampled(metaData.getColumnType(i + 1)))
+				{
+					sketches[i] = new HSQL2DistinctSketch(HSQL2DistinctSketch.DEFAULT_SIZE);
+				}
+			}
+			
+			long sampledRows = 0;
+			while(rs.next())
+			{
+				sampledRows++;
+				for(int i = 0; i < columnCount; i++)
+				{
+					if(sketches[i] != null)
+					{
+						final Object value = rs.getObject(i + 1);
+						if(value != null)
+						{
+							sketches[i].add(value);
+						}
+					}
+				}
+			}
+			
+			final List<HSQL2TableStatistics.ColumnStatistics> columns = new ArrayList<>(columnCount);
+			for(int i = 0; i < columnCount; i++)
+			{
+				if(sketches[i] != null)
+				{
+					columns.add(estimateColumn(
+						metaData.getColumnLabel(i + 1),
+						sketches[i],
+						sampledRows,
+						Math.max(rowCount, sampledRows)));
+				}
+			}
+			
+			return new HSQL2TableStatistics(
+				table.sql().schema,
+				table.sql().name,
+				Math.max(rowCount, sampledRows),
+				sampledRows,
+				columns.toArray(new HSQL2TableStatistics.ColumnStatistics[columns.size()]));
+		}
+		catch(final SQLException e)
+		{
+			throw new SQLEngineException(e);
+		}
+		finally
+		{
+			closeQuietly(rs);
+		}
+	}
+	
+	/**
+	 * Drops the cached indices and statistics of the given table.
+	 *
+	 * @param schema the schema of the table, <code>null</code> to drop the table in all schemas
+	 * @param name   the name of the table
+	 */
+	public void invalidate(final String schema, final String name)
+	{
+		synchronized(this.indexCache)
+		{
+			removeTable(this.indexCache, schema, name);
+		}
+		synchronized(this.statisticsCache)
+		{
+			removeTable(this.statisticsCache, schema, name);
+		}
+	}
+	
+	/**
+	 * Drops all cached indices and statistics.
+	 */
+	public void clearCache()
+	{
+		synchronized(this.indexCache)
+		{
+			this.indexCache.clear();
+		}
+		synchronized(this.statisticsCache)
+		{
+			this.statisticsCache.clear();
+		}
+	}
+	
+	public int getCacheSize()
+	{
+		return this.cacheSize;
+	}
+	
+	/**
+	 * @param cacheSize the maximum number of tables whose indices and statistics are cached
+	 */
+	public void setCacheSize(final int cacheSize)
+	{
+		this.cacheSize = cacheSize;
+		this.clearCache();
+	}
+	
+	public long getIndexRefreshInterval()
+	{
+		return this.indexRefreshInterval;
+	}
+	
+	/**
+	 * @param indexRefreshInterval the maximum age of cached indices in milliseconds
+	 */
+	public void setIndexRefreshInterval(final long indexRefreshInterval)
+	{
+		this.indexRefreshInterval = indexRefreshInterval;
+	}
+	
+	public int getStatisticsSampleSize()
+	{
+		return this.statisticsSampleSize;
+	}
+	
+	/**
+	 * @param statisticsSampleSize the number of leading rows read for table statistics
+	 */
+	public void setStatisticsSampleSize(final int statisticsSampleSize)
+	{
+		this.statisticsSampleSize = Math.max(1, statisticsSampleSize);
+	}
+	
+	public long getStatisticsRefreshInterval()
+	{
+		return this.statisticsRefreshInterval;
+	}
+	
+	/**
+	 * @param statisticsRefreshInterval the maximum age of cached table statistics in milliseconds
+	 */
+	public void setStatisticsRefreshInterval(final long statisticsRefreshInterval)
+	{
+		this.statisticsRefreshInterval = statisticsRefreshInterval;
+	}
+	
+	/**
+	 * Reads the row count maintained by HSQLDB, falls back to counting for views.
+	 */
+	private long loadRowCount(final SqlTableIdentity table) throws SQLEngineException
+	{
+		final StringBuilder sb = new StringBuilder(256);
+		sb.append("SELECT CARDINALITY FROM ").append(SYSTEMTABLE_TABLESTATS).append(" WHERE ");
+		appendTableCondition(sb, "TABLE_SCHEMA", table);
+		
+		ResultSet rs = this.getDbmsAdaptor().getDatabaseGateway().executeQuery(sb.toString());
+		try
+		{
+			if(rs.next())
+			{
+				return rs.getLong(1);
+			}
+			closeQuietly(rs);
+			
+			sb.setLength(0);
+			sb.append("SELECT COUNT(*) FROM ");
+			appendTableName(sb, table);
+			rs = this.getDbmsAdaptor().getDatabaseGateway().executeQuery(sb.toString());
+			rs.next();
+			return rs.getLong(1);
+		}
+		catch(final SQLException e)
+		{
+			throw new SQLEngineException(e);
+		}
+		finally
+		{
+			closeQuietly(rs);
+		}
+	}
+	
+	/**
+	 * @param rowCount the number of rows of the table
+	 */
+	private static HSQL2TableStatistics.ColumnStatistics estimateColumn(
+		final String name, final HSQL2DistinctSketch sketch,
+		final long sampledRows, final long rowCount)
+	{
+		final double nullFraction = sampledRows == 0 ? 0 : 1 - (double)sketch.getValueCount() / sampledRows;
+		final double n = sketch.getValueCount();
+		final double d = sketch.estimateDistinct();
+		
+		double distinct = d;
+		if(sampledRows < rowCount && n > 0)
+		{
+			final double total = rowCount * (1 - nullFraction);
+			final double singletons = sketch.estimateSingletons();
+			distinct = n * d / (n - singletons + singletons * n / total);
+			distinct = Math.max(d, Math.min(total, distinct));
+		}
+		
+		return new HSQL2TableStatistics.ColumnStatistics(name, distinct, nullFraction);
+	}
+	
+	private static boolean isSampled(final int type)
+	{
+		switch(type)
+		{
+			case Types.BLOB:
+			case Types.CLOB:
+			case Types.NCLOB:
+			case Types.ARRAY:
+			case Types.JAVA_OBJECT:
+			case Types.OTHER:
+				return false;
+			default:
+				return true;
+		}
+	}
+	
+	private static void appendTableName(final StringBuilder sb, final SqlTableIdentity table)
+	{
+		final String schema = table.sql().schema;
+		if(schema != null)
+		{
+			HSQL2Dbms.appendIdentifier(schema, sb).append('.');
+		}
+		HSQL2Dbms.appendIdentifier(table.sql().name, sb);
+	}
+	
+	private static void addIndex(
+		final List<SqlIndex> indices, final SqlTableIdentity table, final String indexName,
+		final boolean unique, final List<String> columns)
+	{
+		if(indexName != null && !columns.isEmpty())
+		{
+			indices.add(new SqlIndex(indexName, table, unique, columns.toArray()));
+			columns.clear();
+		}
+	}
+	
+	/**
+	 * Appends the schema and table name condition. The names are added as string literals, a missing schema
+	 * matches the current schema of the session.
+	 */
+	private static void appendTableCondition(
+		final StringBuilder sb, final String schemaColumn,
+		final SqlTableIdentity table)
+	{
+		final String schema = table.sql().schema;
+		sb.append(schemaColumn).append(" = ");
+		if(schema == null)
+		{
+			sb.append("CURRENT_SCHEMA");
+		}
+		else
+		{
+			appendLiteral(sb, schema);
+		}
+		sb.append(" AND TABLE_NAME = ");
+		appendLiteral(sb, table.sql().name);
+	}
+	
+	private static void appendLiteral(final StringBuilder sb, final String value)
+	{
+		sb.append('\'');
+		for(int i = 0; i < value.length(); i++)
+		{
+			final char ch = value.charAt(i);
+			if(ch == '\'')
+			{
+				sb.append('\'');
+			}
+			sb.append(ch);
+		}
+		sb.append('\'');
+	}
+	
+	/**
+	 * Removes the entries of a table from a cache. Without a schema, the entries of the table in all schemas are
+	 * removed, since an unqualified name may refer to any of them. With a schema, its entry and the unqualified one
+	 * are removed.
+	 */
+	private static void removeTable(final Map<String, ?> cache, final String schema, final String name)
+	{
+		if(schema != null)
+		{
+			cache.remove(getCacheKey(schema, name));
+			cache.remove(getCacheKey(null, name));
+		}
+		else
+		{
+			final String suffix = "." + name;
+			cache.keySet().removeIf(key -> key.equals(name) || key.endsWith(suffix));
+		}
+	}
+	
+	private static String getCacheKey(final String schema, final String name)
+	{
+		return schema == null ? name : schema + "." + name;
+	}
+	
+	private static void closeQuietly(final ResultSet rs)
+	{
+		try
+		{
+			final Statement statement = rs.getStatement();
+			rs.close();
+			if(statement != null)
+			{
+				statement.close();
+			}
+		}
+		catch(final SQLException e)
+		{
+			// already closed, nothing to release
+		}
+	}
+	
+	private static final class CachedIndices
+	{
+		final SqlIndex[] indices;
+		final long created = System.currentTimeMillis();
+		
+		CachedIndices(final SqlIndex[] indices)
+		{
+			this.indices = indices;
+		}
 	}
 }
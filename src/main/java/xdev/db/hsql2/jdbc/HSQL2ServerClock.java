@@ -0,0 +1,136 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
+
+
+/**
+ * Estimates the clock of the database server from the local clock.
+ * <p>
+ * The offset between server and local clock is measured by reading <code>CURRENT_TIMESTAMP</code> a few times and
+ * keeping the sample with the shortest round trip, assuming the server read its clock halfway through the round
+ * trip. The measurement is repeated once it is older than the maximum staleness.
+ *
+ * @see HSQL2JDBCDataSource#SERVER_TIME_MAX_STALENESS
+ */
+public class HSQL2ServerClock
+{
+	/**
+	 * The number of round trips per measurement.
+	 */
+	public static final int SAMPLES = 3;
+	
+	private static final String QUERY = "CALL current_timestamp"; //$NON-NLS-1$
+	
+	private volatile long offset;
+	private volatile long roundTripTime = -1;
+	private volatile long measured;
+	
+	/**
+	 * @return the estimated server time, based on the last measurement
+	 */
+	public Date currentTime()
+	{
+		return new Date(System.currentTimeMillis() + offset);
+	}
+	
+	/**
+	 * @param maxStaleness the maximum age of the measurement in milliseconds
+	 * @return <code>true</code> if the offset has not been measured yet or the last measurement is too old
+	 */
+	public boolean isStale(long maxStaleness)
+	{
+		return roundTripTime < 0 || System.currentTimeMillis() - measured > maxStaleness;
+	}
+	
+	/**
+	 * Measures the offset if it is still stale; concurrent callers wait for one measurement.
+	 *
+	 * @param connection   the connection used for the measurement
+	 * @param maxStaleness the maximum age of the measurement in milliseconds
+	 */
+	public synchronized void refresh(Connection connection, long maxStaleness) throws SQLException
+	{
+		if(isStale(maxStaleness))
+		{
+			measure(connection);
+		}
+	}
+	
+	/**
+	 * @return the measured difference of server and local clock in milliseconds
+	 */
+	public long getOffset()
+	{
+		return offset;
+	}
+	
+	/**
+	 * @return the round trip time of the last measurement in milliseconds, <code>-1</code> if not measured yet
+	 */
+	public long getRoundTripTime()
+	{
+		return roundTripTime;
+	}
+	
+	/**
+	 * Marks the measurement as stale.
+	 */
+	public void reset()
+	{
+		roundTripTime = -1;
+	}
+	
+	private void measure(Connection connection) throws SQLException
+	{
+		long bestOffset = 0;
+		long bestRoundTrip = Long.MAX_VALUE;
+		
+		try(Statement statement = connection.createStatement())
+		{
+			for(int i = 0; i < SAMPLES; i++)
+			{
+				long start = System.currentTimeMillis();
+				long startNanos = System.nanoTime();
+				Timestamp serverTime;
+				try(ResultSet rs = statement.executeQuery(QUERY))
+				{
+					rs.next();
+					serverTime = rs.getTimestamp(1);
+				}
+				long roundTrip = (System.nanoTime() - startNanos) / 1000000;
+				
+				if(roundTrip < bestRoundTrip)
+				{
+					bestRoundTrip = roundTrip;
+					bestOffset = serverTime.getTime() - (start + roundTrip / 2);
+				}
+			}
+		}
+		
+		offset = bestOffset;
+		measured = System.currentTimeMillis();
+		roundTripTime = bestRoundTrip;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+
+/**
+ * Applies the fetch size and result memory rows of a single {@link HSQL2JDBCConnection} operation to a connection
+ * of the data source.
+ * <p>
+ * Statements created on the wrapped connection get the fetch size. A result memory rows value different from the
+ * session default of the data source is set when wrapping and reset when the wrapper is closed.
+ *
+ * @see HSQL2JDBCDataSource#FETCH_SIZE
+ * @see HSQL2JDBCDataSource#RESULT_MEMORY_ROWS
+ */
+final class HSQL2SessionConnection implements InvocationHandler
+{
+	private final Connection connection;
+	private final int fetchSize;
+	private final int defaultResultMemoryRows;
+	private final boolean resultMemoryRowsChanged;
+	
+	private HSQL2SessionConnection(
+		Connection connection, int fetchSize, int defaultResultMemoryRows,
+		boolean resultMemoryRowsChanged)
+	{
+		this.connection = connection;
+		this.fetchSize = fetchSize;
+		this.defaultResultMemoryRows = defaultResultMemoryRows;
+		this.resultMemoryRowsChanged = resultMemoryRowsChanged;
+	}
+	
+	/**
+	 * @param connection              the connection of the data source
+	 * @param fetchSize               the fetch size for created statements, <code>0</code> for the driver's default
+	 * @param resultMemoryRows        the result memory rows of the session
+	 * @param defaultResultMemoryRows the result memory rows the data source has set for the session
+	 * @return the connection itself if there is nothing to apply, a wrapper otherwise
+	 */
+	static Connection wrap(Connection connection, int fetchSize, int resultMemoryRows, int defaultResultMemoryRows)
+		throws SQLException
+	{
+		boolean resultMemoryRowsChanged = resultMemoryRows != defaultResultMemoryRows;
+		if(fetchSize <= 0 && !resultMemoryRowsChanged)
+		{
+			return connection;
+		}
+		
+		if(resultMemoryRowsChanged)
+		{
+			setResultMemoryRows(connection, resultMemoryRows);
+		}
+		
+		return (Connection)Proxy.newProxyInstance(
+			Connection.class.getClassLoader(),
+			new Class<?>[]{Connection.class},
+			new HSQL2SessionConnection(connection, fetchSize, defaultResultMemoryRows, resultMemoryRowsChanged));
+	}
+	
+	/**
+	 * Sets the number of result rows above which HSQLDB stores results on disk, <code>0</code> for no limit.
+	 */
+	static void setResultMemoryRows(Connection connection, int rows) throws SQLException
+	{
+		try(Statement statement = connection.createStatement())
+		{
+			statement.execute("SET SESSION RESULT MEMORY ROWS " + Math.max(0, rows)); //$NON-NLS-1$
+		}
+	}
+	
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+	{
+		String name = method.getName();
+		if(name.equals("close") && resultMemoryRowsChanged && !connection.isClosed())
+		{
+			try
+			{
+				setResultMemoryRows(connection, defaultResultMemoryRows);
+			}
+			catch(SQLException e)
+			{
+				// the connection is closed anyway
+			}
+		}
+		
+		Object result;
+		try
+		{
+			result = method.invoke(connection, args);
+		}
+		catch(InvocationTargetException e)
+		{
+			throw e.getCause();
+		}
+		
+		if(fetchSize > 0 && result instanceof Statement
+			&& (name.equals("createStatement") || name.equals("prepareStatement") || name.equals("prepareCall")))
+		{
+			((Statement)result).setFetchSize(fetchSize);
+		}
+		
+		return result;
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * LRU cache of the prepared statements of one physical connection, keyed by SQL text.
+ * <p>
+ * A cached statement is handed out wrapped; closing the wrapper clears its parameters and keeps the statement
+ * open for the next caller with the same SQL. If the statement of a SQL text is still in use, e.g. while its
+ * result is iterated, a second caller gets a new statement which is not cached.
+ * <p>
+ * The cache is owned by the pooled connection, see {@link HSQL2ConnectionPool}, and like the connection it is used
+ * by one thread at a time.
+ */
+public class HSQL2StatementCache
+{
+	private final Connection connection;
+	private final int maxSize;
+	private final Map<String, CachedStatement> statements;
+	
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	
+	/**
+	 * @param connection the physical connection
+	 * @param maxSize    the maximum number of cached statements
+	 */
+	public HSQL2StatementCache(Connection connection, int maxSize)
+	{
+		this.connection = connection;
+		this.maxSize = maxSize;
+		this.statements = new LinkedHashMap<>(16, 0.75f, true);
+	}
+	
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+	
+	public int size()
+	{
+		return statements.size();
+	}
+	
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+	
+	public long getMissCount()
+	{
+		return missCount.get();
+	}
+	
+	/**
+	 * Returns the cached statement for the given SQL, or prepares and caches a new one.
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException
+	{
+		return prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+	}
+	
+	/**
+	 * Returns the cached statement for the given SQL and result set type, or prepares and caches a new one.
+	 */
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+		throws SQLException
+	{
+		String key = resultSetType == ResultSet.TYPE_FORWARD_ONLY
+			&& resultSetConcurrency == ResultSet.CONCUR_READ_ONLY ? sql
+				: resultSetType + "#" + resultSetConcurrency + "#" + sql;
+		
+		CachedStatement cached = statements.get(key);
+		if(cached != null)
+		{
+			if(cached.inUse || cached.statement.isClosed())
+			{
+				missCount.incrementAndGet();
+				if(cached.inUse)
+				{
+					return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+				}
+				statements.remove(key);
+			}
+			else
+			{
+				hitCount.incrementAndGet();
+				return cached.lease();
+			}
+		}
+		else
+		{
+			missCount.incrementAndGet();
+		}
+		
+		cached = new CachedStatement(connection.prepareStatement(sql, resultSetType, resultSetConcurrency));
+		statements.put(key, cached);
+		evict();
+		return cached.lease();
+	}
+	
+	/**
+	 * Closes all cached statements which are not in use.
+	 */
+	public void clear()
+	{
+		List<CachedStatement> removed = new ArrayList<>();
+		statements.values().removeIf(cached -> !cached.inUse && removed.add(cached));
+		removed.forEach(CachedStatement::closeQuietly);
+	}
+	
+	private void evict()
+	{
+		Iterator<CachedStatement> it = statements.values().iterator();
+		while(statements.size() > maxSize && it.hasNext())
+		{
+			CachedStatement cached = it.next();
+			if(!cached.inUse)
+			{
+				it.remove();
+				cached.closeQuietly();
+			}
+		}
+	}
+	
+	private final class CachedStatement
+	{
+		final PreparedStatement statement;
+		boolean inUse;
+		
+		CachedStatement(PreparedStatement statement)
+		{
+			this.statement = statement;
+		}
+		
+		PreparedStatement lease()
+		{
+			inUse = true;
+			return (PreparedStatement)Proxy.newProxyInstance(
+				PreparedStatement.class.getClassLoader(),
+				new Class<?>[]{PreparedStatement.class},
+				new Lease(this));
+		}
+		
+		void closeQuietly()
+		{
+			try
+			{
+				statement.close();
+			}
+			catch(SQLException e)
+			{
+				// ignore, the statement is dropped anyway
+			}
+		}
+		
+		void release()
+		{
+			inUse = false;
+			try
+			{
+				ResultSet resultSet = statement.getResultSet();
+				if(resultSet != null)
+				{
+					resultSet.close();
+				}
+				statement.clearParameters();
+				statement.setFetchSize(0);
+				statement.setMaxRows(0);
+				statement.clearBatch();
+				statement.clearWarnings();
+			}
+			catch(SQLException e)
+			{
+				statements.values().remove(this);
+				closeQuietly();
+			}
+			evict();
+		}
+	}
+	
+	/**
+	 * The handle given to a caller; it forwards to the cached statement until it is closed.
+	 */
+	private static final class Lease implements InvocationHandler
+	{
+		private final CachedStatement cached;
+		private boolean released;
+		
+		Lease(CachedStatement cached)
+		{
+			this.cached = cached;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			switch(method.getName())
+			{
+				case "close":
+					if(!released)
+					{
+						released = true;
+						cached.release();
+					}
+					return null;
+				
+				case "isClosed":
+					return released || cached.statement.isClosed();
+				
+				case "equals":
+					return proxy == args[0];
+				
+				case "hashCode":
+					return System.identityHashCode(proxy);
+			}
+			
+			if(released)
+			{
+				throw new SQLException("Statement is closed");
+			}
+			
+			try
+			{
+				return method.invoke(cached.statement, args);
+			}
+			catch(InvocationTargetException e)
+			{
+				throw e.getCause();
+			}
+		}
+	}
+}
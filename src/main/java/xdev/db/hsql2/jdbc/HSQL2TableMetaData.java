@@ -0,0 +1,53 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import xdev.db.ColumnMetaData;
+import xdev.db.DBMetaData.TableInfo;
+import xdev.db.DBMetaData.TableMetaData;
+import xdev.db.Index;
+
+
+/**
+ * {@link TableMetaData} which tells whether its row count has been counted or estimated.
+ *
+ * @see HSQL2JDBCMetaData#ESTIMATED_ROW_COUNT
+ */
+public class HSQL2TableMetaData extends TableMetaData
+{
+	private static final long serialVersionUID = -1306624327734816419L;
+	
+	private final boolean rowCountEstimated;
+	
+	public HSQL2TableMetaData(
+		final TableInfo tableInfo, final ColumnMetaData[] columns, final Index[] indices,
+		final int rowCount, final boolean rowCountEstimated)
+	{
+		super(tableInfo, columns, indices, rowCount);
+		this.rowCountEstimated = rowCountEstimated;
+	}
+	
+	/**
+	 * @return <code>true</code> if the row count has been read from HSQLDB's table statistics,
+	 * <code>false</code> if it is an exact count or unknown
+	 */
+	public boolean isRowCountEstimated()
+	{
+		return this.rowCountEstimated;
+	}
+}
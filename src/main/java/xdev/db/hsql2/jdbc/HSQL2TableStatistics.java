@@ -0,0 +1,167 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Column statistics of a table, estimated from its first rows.
+ *
+ * @see HSQL2RetrospectionAccessor#loadTableStatistics(com.xdev.jadoth.sqlengine.internal.tables.SqlTableIdentity)
+ * @see HSQL2Dbms#updateSelectivity(com.xdev.jadoth.sqlengine.internal.tables.SqlTableIdentity)
+ */
+public class HSQL2TableStatistics
+{
+	/**
+	 * The estimated distribution of the values of one column.
+	 */
+	public static final class ColumnStatistics
+	{
+		private final String name;
+		private final double distinctCount;
+		private final double nullFraction;
+		
+		public ColumnStatistics(final String name, final double distinctCount, final double nullFraction)
+		{
+			this.name = name;
+			this.distinctCount = distinctCount;
+			this.nullFraction = nullFraction;
+		}
+		
+		public String getName()
+		{
+			return this.name;
+		}
+		
+		/**
+		 * @return the estimated number of distinct non-<code>NULL</code> values
+		 */
+		public double getDistinctCount()
+		{
+			return this.distinctCount;
+		}
+		
+		/**
+		 * @return the estimated fraction of rows with <code>NULL</code> in this column
+		 */
+		public double getNullFraction()
+		{
+			return this.nullFraction;
+		}
+		
+		/**
+		 * @return the estimated fraction of rows matched by an equality condition on this column, small values
+		 *         indicate a selective column
+		 */
+		public double getSelectivity()
+		{
+			return this.distinctCount < 1 ? 0 : (1 - this.nullFraction) / this.distinctCount;
+		}
+	}
+	
+	private final String schema;
+	private final String name;
+	private final long rowCount;
+	private final long sampledRows;
+	private final long created;
+	private final Map<String, ColumnStatistics> columns;
+	
+	public HSQL2TableStatistics(
+		final String schema,
+		final String name,
+		final long rowCount,
+		final long sampledRows,
+		final ColumnStatistics[] columns)
+	{
+		this.schema = schema;
+		this.name = name;
+		this.rowCount = rowCount;
+		this.sampledRows = sampledRows;
+		this.created = System.currentTimeMillis();
+		
+		final Map<String, ColumnStatistics> map = new LinkedHashMap<>();
+		for(final ColumnStatistics column : columns)
+		{
+			map.put(column.getName(), column);
+		}
+		this.columns = Collections.unmodifiableMap(map);
+	}
+	
+	public String getSchema()
+	{
+		return this.schema;
+	}
+	
+	public String getName()
+	{
+		return this.name;
+	}
+	
+	/**
+	 * @return the number of rows of the table at the time of sampling
+	 */
+	public long getRowCount()
+	{
+		return this.rowCount;
+	}
+	
+	/**
+	 * @return the number of rows the statistics are estimated from
+	 */
+	public long getSampledRows()
+	{
+		return this.sampledRows;
+	}
+	
+	/**
+	 * @return the time the statistics have been collected, in milliseconds since the epoch
+	 */
+	public long getCreated()
+	{
+		return this.created;
+	}
+	
+	/**
+	 * @return the statistics of all sampled columns by column name, in table order
+	 */
+	public Map<String, ColumnStatistics> getColumns()
+	{
+		return this.columns;
+	}
+	
+	/**
+	 * @return the statistics of the column, <code>null</code> if it has not been sampled
+	 */
+	public ColumnStatistics getColumn(final String column)
+	{
+		return this.columns.get(column);
+	}
+	
+	/**
+	 * @return the selectivity of the column, <code>-1</code> if it has not been sampled
+	 * @see ColumnStatistics#getSelectivity()
+	 */
+	public double getSelectivity(final String column)
+	{
+		final ColumnStatistics statistics = this.columns.get(column);
+		return statistics == null ? -1 : statistics.getSelectivity();
+	}
+}
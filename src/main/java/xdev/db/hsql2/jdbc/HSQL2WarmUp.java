@@ -0,0 +1,188 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import xdev.db.DBException;
+import xdev.db.DBMetaData;
+import xdev.db.DBMetaData.TableInfo;
+import xdev.db.DBMetaData.TableType;
+import xdev.util.ProgressMonitor;
+
+
+/**
+ * Prepares a {@link HSQL2JDBCDataSource} for its first requests.
+ * <p>
+ * If pooling is enabled, the warm-up opens {@link HSQL2JDBCDataSource#WARM_UP_CONNECTIONS} connections at once, at
+ * most as many as the pool holds, and prepares the {@link HSQL2JDBCDataSource#WARM_UP_STATEMENTS} on each of them,
+ * which fills their statement caches. Without pooling the connections would be closed right away, so only one is
+ * opened to check the connection settings. Afterwards the meta data of the
+ * {@link HSQL2JDBCDataSource#WARM_UP_TABLES} is loaded into the data source's {@link HSQL2MetaDataCache}.
+ *
+ * @see HSQL2Dbms#initialize(com.xdev.jadoth.sqlengine.internal.DatabaseGateway)
+ * @see HSQL2JDBCDataSource#warmUp()
+ */
+public class HSQL2WarmUp
+{
+	private final HSQL2JDBCDataSource dataSource;
+	
+	public HSQL2WarmUp(HSQL2JDBCDataSource dataSource)
+	{
+		this.dataSource = dataSource;
+	}
+	
+	/**
+	 * Runs the warm-up if {@link HSQL2JDBCDataSource#WARM_UP} is enabled.
+	 *
+	 * @return <code>true</code> if the warm-up has been run
+	 */
+	public boolean runIfEnabled() throws DBException
+	{
+		if(!dataSource.isWarmUp())
+		{
+			return false;
+		}
+		run();
+		return true;
+	}
+	
+	/**
+	 * Runs the warm-up.
+	 */
+	public void run() throws DBException
+	{
+		if(dataSource.isPooling())
+		{
+			int connections = Math.min(
+				dataSource.getWarmUpConnections(),
+				dataSource.getConnectionPool().getMaxSize());
+			openConnections(Math.max(1, connections), split(dataSource.getWarmUpStatements(), ';'));
+		}
+		else
+		{
+			openConnections(1, new String[0]);
+		}
+		
+		String[] tables = split(dataSource.getWarmUpTables(), ',');
+		if(tables.length > 0)
+		{
+			TableInfo[] tableInfos = new TableInfo[tables.length];
+			for(int i = 0; i < tables.length; i++)
+			{
+				int dot = tables[i].lastIndexOf('.');
+				tableInfos[i] = dot > 0 ? new TableInfo(
+					TableType.TABLE,
+					tables[i].substring(0, dot),
+					tables[i].substring(dot + 1)) : new TableInfo(TableType.TABLE, null, tables[i]);
+			}
+			dataSource.getMetaData().getTableMetaData(new SilentProgressMonitor(), DBMetaData.INDICES, tableInfos);
+		}
+	}
+	
+	/**
+	 * Holds all connections open at the same time, so that the pool creates as many as requested.
+	 */
+	private void openConnections(int count, String[] statements) throws DBException
+	{
+		List<Connection> connections = new ArrayList<>(count);
+		try
+		{
+			for(int i = 0; i < count; i++)
+			{
+				Connection connection = dataSource.borrowConnection();
+				connections.add(connection);
+				for(String sql : statements)
+				{
+					try(PreparedStatement statement = connection.prepareStatement(sql))
+					{
+						// compiled, and kept by the statement cache of a pooled connection
+					}
+				}
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(dataSource, e);
+		}
+		finally
+		{
+			for(Connection connection : connections)
+			{
+				try
+				{
+					connection.close();
+				}
+				catch(SQLException e)
+				{
+					// ignore, the connection is not used anymore
+				}
+			}
+		}
+	}
+	
+	private static String[] split(String value, char separator)
+	{
+		List<String> list = new ArrayList<>();
+		if(value != null)
+		{
+			for(String part : value.split(String.valueOf(separator)))
+			{
+				part = part.trim();
+				if(part.length() > 0)
+				{
+					list.add(part);
+				}
+			}
+		}
+		return list.toArray(new String[list.size()]);
+	}
+	
+	private static final class SilentProgressMonitor implements ProgressMonitor
+	{
+		@Override
+		public void beginTask(String name, int totalWork)
+		{
+		}
+		
+		@Override
+		public void setTaskName(String name)
+		{
+		}
+		
+		@Override
+		public void worked(int work)
+		{
+		}
+		
+		@Override
+		public boolean isCanceled()
+		{
+			return false;
+		}
+		
+		@Override
+		public void done()
+		{
+		}
+	}
+}
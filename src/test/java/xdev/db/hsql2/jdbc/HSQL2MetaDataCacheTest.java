@@ -0,0 +1,113 @@
+/*
+ * SqlEngine Database Adapter HSQL2 - XAPI SqlEngine Database Adapter for HSQL2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.hsql2.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumSet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import xdev.db.DBMetaData.TableInfo;
+import xdev.db.DBMetaData.TableType;
+
+
+class HSQL2MetaDataCacheTest
+{
+	private static final EnumSet<TableType> TABLES = EnumSet.of(TableType.TABLE);
+	
+	private Connection connection;
+	private HSQL2MetaDataCache cache;
+	
+	@BeforeEach
+	void setUp() throws SQLException
+	{
+		connection = DriverManager.getConnection("jdbc:hsqldb:mem:metadatacache", "SA", "");
+		execute("CREATE TABLE T (A INT PRIMARY KEY, B VARCHAR(10) DEFAULT 'x', C INT, CONSTRAINT UQ UNIQUE (B))");
+		
+		cache = new HSQL2MetaDataCache();
+		assertFalse(cache.validate(connection));
+		cache.putTableInfos(TABLES, new TableInfo[]{new TableInfo(TableType.TABLE, "PUBLIC", "T")});
+	}
+	
+	@AfterEach
+	void tearDown() throws SQLException
+	{
+		execute("DROP SCHEMA PUBLIC CASCADE");
+		connection.close();
+	}
+	
+	@Test
+	void keepsEntriesWithoutSchemaChange() throws SQLException
+	{
+		execute("INSERT INTO T VALUES (1, 'a', 2)");
+		
+		assertFalse(cache.validate(connection));
+		assertNotNull(cache.getTableInfos(TABLES));
+	}
+	
+	@Test
+	void dropsEntriesAfterColumnRename() throws SQLException
+	{
+		assertSchemaChange("ALTER TABLE T ALTER COLUMN C RENAME TO D");
+	}
+	
+	@Test
+	void dropsEntriesAfterTableRename() throws SQLException
+	{
+		assertSchemaChange("ALTER TABLE T RENAME TO U");
+	}
+	
+	@Test
+	void dropsEntriesAfterDefaultChange() throws SQLException
+	{
+		assertSchemaChange("ALTER TABLE T ALTER COLUMN B SET DEFAULT 'y'");
+	}
+	
+	@Test
+	void dropsEntriesAfterUniqueConstraintChange() throws SQLException
+	{
+		execute("ALTER TABLE T DROP CONSTRAINT UQ");
+		assertSchemaChange("ALTER TABLE T ADD CONSTRAINT UQ UNIQUE (C)");
+	}
+	
+	private void assertSchemaChange(String ddl) throws SQLException
+	{
+		execute(ddl);
+		
+		assertTrue(cache.validate(connection));
+		assertNull(cache.getTableInfos(TABLES), "cached entry must be reloaded");
+	}
+	
+	private void execute(String sql) throws SQLException
+	{
+		try(Statement statement = connection.createStatement())
+		{
+			statement.execute(sql);
+		}
+	}
+}